@@ -0,0 +1,75 @@
+package sap.capire.xtravels.handler;
+
+import com.sap.cds.services.runtime.CdsRuntime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import sap.capire.xtravels.Application;
+
+// Starts the xtravels application on H2 with the shipped CSV data and a mocked xflights
+// service, without web server, initial load and scheduled jobs, for use in benchmarks.
+class BenchmarkApplication implements AutoCloseable {
+
+  private final ConfigurableApplicationContext context;
+  private final CdsRuntime runtime;
+
+  private BenchmarkApplication(ConfigurableApplicationContext context) {
+    this.context = context;
+    this.runtime = context.getBean(CdsRuntime.class);
+  }
+
+  static BenchmarkApplication start(String... properties) {
+    List<String> defaults =
+        new ArrayList<>(
+            List.of(
+                "spring.main.web-application-type=none",
+                "spring.main.banner-mode=off",
+                "logging.level.root=WARN",
+                "skip-initial-load=true",
+                "xtravels.federation.delta-sync.enabled=false"));
+    defaults.addAll(List.of(properties));
+    var context =
+        new SpringApplicationBuilder(Application.class)
+            .properties(defaults.toArray(String[]::new))
+            .run();
+    return new BenchmarkApplication(context);
+  }
+
+  String url(String path) {
+    return "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + path;
+  }
+
+  <T> T bean(Class<T> type) {
+    return context.getBean(type);
+  }
+
+  // runs the given code in a request context of a privileged user, like a request would
+  <T> T privileged(Supplier<T> code) {
+    return runtime
+        .requestContext()
+        .privilegedUser()
+        .run(
+            requestContext -> {
+              return code.get();
+            });
+  }
+
+  // runs the given code in a single change set, like a $batch change set would
+  <T> T inChangeSet(Supplier<T> code) {
+    return privileged(
+        () ->
+            runtime
+                .changeSetContext()
+                .run(
+                    changeSet -> {
+                      return code.get();
+                    }));
+  }
+
+  @Override
+  public void close() {
+    context.close();
+  }
+}
@@ -0,0 +1,56 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.travelservice.TravelService_.TRAVELS;
+import static sap.capire.xtravels.TestData.createTravelData;
+
+import cds.gen.travelservice.TravelService;
+import cds.gen.travelservice.Travels;
+import com.sap.cds.Result;
+import com.sap.cds.ql.Insert;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ConstraintHandler: deep inserts of Travels with a growing number of Bookings, which are
+// all checked against their Travel within the insert
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConstraintBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int bookings;
+
+  private BenchmarkApplication app;
+  private TravelService service;
+
+  @Setup
+  public void setup() {
+    app = BenchmarkApplication.start();
+    service = app.bean(TravelService.class);
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  public Result createTravelWithBookings() {
+    Travels travel = createTravelData(bookings, 0);
+    return app.privileged(() -> service.run(Insert.into(TRAVELS).entry(travel)));
+  }
+}
@@ -0,0 +1,82 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.travelservice.TravelService_.BOOKINGS;
+import static cds.gen.travelservice.TravelService_.TRAVELS;
+import static sap.capire.xtravels.TestData.createBookingData;
+import static sap.capire.xtravels.TestData.createTravelData;
+
+import cds.gen.travelservice.Bookings;
+import cds.gen.travelservice.TravelService;
+import cds.gen.travelservice.Travels;
+import com.sap.cds.Result;
+import com.sap.cds.ql.Insert;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// CreationHandler: Travel IDs and Booking positions, alone and within a deep insert
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreationBenchmark {
+
+  private BenchmarkApplication app;
+  private TravelService service;
+  private CreationHandler handler;
+  private Integer travelId;
+
+  @Setup
+  public void setup() {
+    app = BenchmarkApplication.start();
+    service = app.bean(TravelService.class);
+    handler = app.bean(CreationHandler.class);
+    travelId =
+        app.privileged(
+            () ->
+                service
+                    .run(Insert.into(TRAVELS).entry(createTravelData(0, 0)))
+                    .single(Travels.class)
+                    .getId());
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  public Travels calculateTravelId() {
+    Travels travel = createTravelData(3, 0);
+    return app.privileged(
+        () -> {
+          handler.calculateTravelId(travel);
+          return travel;
+        });
+  }
+
+  @Benchmark
+  public Result calculateBookingPos() {
+    Bookings booking = createBookingData();
+    booking.setTravelId(travelId);
+    booking.setIsActiveEntity(true);
+    return app.privileged(() -> service.run(Insert.into(BOOKINGS).entry(booking)));
+  }
+
+  @Benchmark
+  public Result createTravelWithBookings() {
+    Travels travel = createTravelData(3, 2);
+    return app.privileged(() -> service.run(Insert.into(TRAVELS).entry(travel)));
+  }
+}
@@ -0,0 +1,90 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.travelservice.TravelService_.TRAVELS;
+import static sap.capire.xtravels.TestData.createTravelData;
+
+import cds.gen.travelservice.DiscountResult;
+import cds.gen.travelservice.TravelService;
+import cds.gen.travelservice.Travels;
+import cds.gen.travelservice.TravelsDeductDiscountContext;
+import cds.gen.travelservice.TravelsDeductDiscountsContext;
+import com.sap.cds.ql.Insert;
+import com.sap.cds.ql.Select;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// DeductDiscountHandler: discounting many Travels one by one vs. with deductDiscounts
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeductDiscountBenchmark {
+
+  @Param({"10", "100"})
+  public int travels;
+
+  private BenchmarkApplication app;
+  private TravelService service;
+  private List<Integer> ids;
+
+  @Setup
+  public void setup() {
+    app = BenchmarkApplication.start();
+    service = app.bean(TravelService.class);
+    ids = new ArrayList<>();
+    for (int i = 0; i < travels; i++) {
+      Travels travel = createTravelData(2, 1);
+      ids.add(
+          app.privileged(
+              () -> service.run(Insert.into(TRAVELS).entry(travel)).single(Travels.class).getId()));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  public int perInstance() {
+    return app.privileged(
+        () -> {
+          for (Integer id : ids) {
+            var context = TravelsDeductDiscountContext.create();
+            context.setCqn(
+                Select.from(TRAVELS).where(t -> t.ID().eq(id).and(t.IsActiveEntity().eq(true))));
+            context.setPercent(1);
+            service.emit(context);
+          }
+          return ids.size();
+        });
+  }
+
+  @Benchmark
+  public DiscountResult setBased() {
+    return app.privileged(
+        () -> {
+          var context = TravelsDeductDiscountsContext.create();
+          context.setCqn(Select.from(TRAVELS));
+          context.setPercent(1);
+          context.setTravels(ids);
+          service.emit(context);
+          return context.getResult();
+        });
+  }
+}
@@ -0,0 +1,93 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.sap.capire.xflights.Xflights_.FLIGHTS;
+import static cds.gen.sap.capire.xflights.Xflights_.SUPPLEMENTS;
+
+import cds.gen.sap.capire.xflights.Flights;
+import cds.gen.sap.capire.xflights.Supplements;
+import cds.gen.travelservice.Bookings;
+import cds.gen.travelservice.Bookings_;
+import com.sap.cds.CdsData;
+import com.sap.cds.ql.Select;
+import com.sap.cds.services.EventContext;
+import com.sap.cds.services.cds.CqnService;
+import com.sap.cds.services.persistence.PersistenceService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sap.capire.xtravels.TestData;
+
+// FederationHandler: replication checks for a deep insert of 30 Bookings with
+// 2 Supplements each, referencing replicated Flights and Supplements. With a replica
+// index size of 0, every check goes to the database. The xflights service is mocked.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FederationBenchmark {
+
+  @Param({"100000", "0"})
+  public int replicaIndexSize;
+
+  private BenchmarkApplication app;
+  private FederationHandler handler;
+  private List<CdsData> bookings;
+
+  @Setup
+  public void setup() {
+    app =
+        BenchmarkApplication.start(
+            "skip-initial-load=false",
+            "xtravels.federation.replica-index.max-size=" + replicaIndexSize);
+    handler = app.bean(FederationHandler.class);
+    PersistenceService db = app.bean(PersistenceService.class);
+    var flights =
+        app.privileged(() -> db.run(Select.from(FLIGHTS).limit(30)).listOf(Flights.class));
+    var supplements =
+        app.privileged(() -> db.run(Select.from(SUPPLEMENTS).limit(60)).listOf(Supplements.class));
+
+    bookings = new ArrayList<>();
+    for (int i = 0; i < flights.size(); i++) {
+      Bookings booking = TestData.createBookingData();
+      booking.setFlightId(flights.get(i).getId());
+      booking.setFlightDate(flights.get(i).getDate());
+      List<Bookings.Supplements> booked = new ArrayList<>();
+      for (int j = 2 * i; j < Math.min(2 * i + 2, supplements.size()); j++) {
+        Bookings.Supplements supplement = Bookings.Supplements.create();
+        supplement.setBookedId(supplements.get(j).getId());
+        booked.add(supplement);
+      }
+      booking.setSupplements(booked);
+      bookings.add(booking);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  public List<CdsData> replicate() {
+    return app.privileged(
+        () -> {
+          EventContext context = EventContext.create(CqnService.EVENT_CREATE, Bookings_.CDS_NAME);
+          handler.replicate(context, bookings);
+          return bookings;
+        });
+  }
+}
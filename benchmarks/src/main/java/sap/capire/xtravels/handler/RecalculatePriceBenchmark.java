@@ -0,0 +1,93 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.travelservice.TravelService_.BOOKINGS;
+import static cds.gen.travelservice.TravelService_.TRAVELS;
+import static sap.capire.xtravels.TestData.createTravelData;
+
+import cds.gen.travelservice.Bookings;
+import cds.gen.travelservice.TravelService;
+import cds.gen.travelservice.Travels;
+import com.sap.cds.ql.Insert;
+import com.sap.cds.ql.Update;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// RecalculatePriceHandler: TotalPrice after changing the BookingFee, or all FlightPrices
+// of a Travel within one change set
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecalculatePriceBenchmark {
+
+  @Param({"10", "50"})
+  public int bookings;
+
+  private BenchmarkApplication app;
+  private TravelService service;
+  private Integer travelId;
+  private int price;
+
+  @Setup
+  public void setup() {
+    app = BenchmarkApplication.start();
+    service = app.bean(TravelService.class);
+    travelId =
+        app.privileged(
+            () ->
+                service
+                    .run(Insert.into(TRAVELS).entry(createTravelData(bookings, 2)))
+                    .single(Travels.class)
+                    .getId());
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  public long updateBookingFee() {
+    var update =
+        Update.entity(TRAVELS)
+            .data(Travels.BOOKING_FEE, BigDecimal.valueOf(price++ % 100))
+            .matching(Map.of(Travels.ID, travelId, Travels.IS_ACTIVE_ENTITY, true));
+    return app.privileged(() -> service.run(update).rowCount());
+  }
+
+  @Benchmark
+  public long updateFlightPrices() {
+    BigDecimal flightPrice = BigDecimal.valueOf(1000 + price++ % 100);
+    return app.inChangeSet(
+        () -> {
+          long rows = 0;
+          for (int pos = 1; pos <= bookings; pos++) {
+            var update =
+                Update.entity(BOOKINGS)
+                    .data(Bookings.FLIGHT_PRICE, flightPrice)
+                    .matching(
+                        Map.of(
+                            Bookings.TRAVEL_ID, travelId,
+                            Bookings.POS, pos,
+                            Bookings.IS_ACTIVE_ENTITY, true));
+            rows += service.run(update).rowCount();
+          }
+          return rows;
+        });
+  }
+}
@@ -0,0 +1,118 @@
+package sap.capire.xtravels.handler;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Time from launching the application to the first served request, for the variants
+// built by `mvn package -Pstartup` in srv: the plain jar, with the ahead-of-time processed
+// context, additionally with the trained AOT cache, and restored from a CRaC checkpoint.
+// Each run starts a new JVM, the warmup run only reads their files into the file system
+// cache. Excluded from the default run of the benchmarks, run it with
+// -Djmh.args=StartupBenchmark.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+
+  private static final Path STARTUP =
+      Path.of(System.getProperty("startup.directory", "../srv/target/startup"));
+  private static final int PORT = Integer.getInteger("startup.port", 8089);
+
+  @Param({"jar", "aot", "aot-cache", "crac"})
+  public String variant;
+
+  private Process application;
+
+  @Benchmark
+  public int firstRequest() throws Exception {
+    application =
+        new ProcessBuilder(command())
+            .directory(STARTUP.resolve("../..").toFile()) // srv, for the relative CSV paths
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+
+    HttpClient client = HttpClient.newHttpClient();
+    String credentials = Base64.getEncoder().encodeToString("admin:".getBytes());
+    HttpRequest request =
+        HttpRequest.newBuilder(
+                URI.create("http://localhost:" + PORT + "/odata/v4/travel/Travels?$top=1"))
+            .header("Authorization", "Basic " + credentials)
+            .timeout(Duration.ofSeconds(5))
+            .build();
+    while (application.isAlive()) {
+      try {
+        int status = client.send(request, BodyHandlers.discarding()).statusCode();
+        if (status == 200) return status;
+      } catch (IOException e) {
+        // not listening yet
+      }
+      Thread.sleep(10);
+    }
+    throw new IllegalStateException(variant + " exited with " + application.exitValue());
+  }
+
+  @TearDown(Level.Iteration)
+  public void stop() throws InterruptedException {
+    if (application != null) {
+      application.destroy();
+      application.waitFor();
+    }
+  }
+
+  private List<String> command() {
+    String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    Path jar = STARTUP.resolve("xtravels-exec.jar");
+    List<String> command = new ArrayList<>(List.of(java));
+    switch (variant) {
+      case "jar" -> {}
+      case "aot" -> command.add("-Dspring.aot.enabled=true");
+      case "aot-cache" -> {
+        command.add("-XX:AOTCache=" + required(STARTUP.resolve("xtravels.aot")));
+        command.add("-Dspring.aot.enabled=true");
+      }
+      case "crac" -> {
+        // the checkpoint was taken after the initial load, with the port, see srv/pom.xml
+        return List.of(java, "-XX:CRaCRestoreFrom=" + required(STARTUP.resolve("crac")));
+      }
+      default -> throw new IllegalArgumentException(variant);
+    }
+    command.addAll(
+        List.of(
+            "-Dskip-initial-load=true", "-Dserver.port=" + PORT, "-jar", required(jar).toString()));
+    return command;
+  }
+
+  private static File required(Path path) {
+    if (!Files.exists(path)) {
+      throw new IllegalStateException(path + " missing, run mvn package -Pstartup in srv");
+    }
+    return path.toFile();
+  }
+}
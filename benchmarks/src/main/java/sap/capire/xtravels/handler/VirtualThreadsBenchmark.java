@@ -0,0 +1,89 @@
+package sap.capire.xtravels.handler;
+
+import cds.gen.sap.capire.flights.data.Data;
+import com.sap.cds.services.cds.CqnService;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Throughput of value help requests for Flights over HTTP, which are delegated to a
+// xflights stub answering after the given latency. 64 concurrent clients compete for
+// 16 servlet threads, unless requests run on virtual threads. The value help cache is
+// disabled and the bulkhead raised, so every request waits for the slow remote call.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(64)
+@Fork(1)
+public class VirtualThreadsBenchmark {
+
+  @Param({"false", "true"})
+  public boolean virtualThreads;
+
+  @Param({"50"})
+  public int latencyMillis;
+
+  private BenchmarkApplication app;
+  private HttpClient client;
+  private HttpRequest valueHelp;
+
+  @Setup
+  public void setup() {
+    app =
+        BenchmarkApplication.start(
+            "spring.main.web-application-type=servlet",
+            "server.port=0",
+            "server.tomcat.threads.max=16",
+            "spring.profiles.active=default" + (virtualThreads ? ",virtual-threads" : ""),
+            "xtravels.federation.value-help-cache.max-size=0",
+            "xtravels.federation.resilience.max-concurrent-calls=1000");
+    app.bean(Data.class)
+        .before(
+            CqnService.EVENT_READ,
+            "*",
+            context -> {
+              try {
+                Thread.sleep(latencyMillis);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+
+    client = HttpClient.newHttpClient();
+    String credentials = Base64.getEncoder().encodeToString("admin:".getBytes());
+    valueHelp =
+        HttpRequest.newBuilder(URI.create(app.url("/odata/v4/travel/Flights?$top=20")))
+            .header("Authorization", "Basic " + credentials)
+            .build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  public int valueHelp() throws Exception {
+    int status = client.send(valueHelp, BodyHandlers.discarding()).statusCode();
+    if (status != 200) throw new IllegalStateException("Value help failed with " + status);
+    return status;
+  }
+}
@@ -0,0 +1,66 @@
+package sap.capire.xtravels.handler;
+
+import cds.gen.sap.capire.flights.data.Flights_;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.cqn.CqnSelect;
+import com.sap.cds.services.cds.CdsReadEventContext;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Workarounds: CQN rewrite of reads of xflights Flights, with and without path columns,
+// and of value help reads selecting all elements
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkaroundsBenchmark {
+
+  private final Workarounds workarounds = new Workarounds();
+
+  private final CqnSelect withPaths =
+      Select.from(Flights_.CDS_NAME)
+          .columns(
+              CQL.get("ID"),
+              CQL.get("date"),
+              CQL.get("airline.name"),
+              CQL.get("origin.name"),
+              CQL.get("destination.name"));
+
+  private final CqnSelect withoutPaths =
+      Select.from(Flights_.CDS_NAME).columns(CQL.get("ID"), CQL.get("date"), CQL.get("price"));
+
+  private final CqnSelect selectAll = Select.from(Flights_.CDS_NAME).limit(20);
+
+  @Benchmark
+  public CqnSelect stabilizeWithPaths() {
+    return stabilize(withPaths);
+  }
+
+  @Benchmark
+  public CqnSelect stabilizeWithoutPaths() {
+    return stabilize(withoutPaths);
+  }
+
+  @Benchmark
+  public CqnSelect stabilizeSelectAll() {
+    return stabilize(selectAll);
+  }
+
+  private CqnSelect stabilize(CqnSelect select) {
+    CdsReadEventContext context = CdsReadEventContext.create(Flights_.CDS_NAME);
+    context.setCqn(select);
+    workarounds.stabilize(context);
+    return context.getCqn();
+  }
+}
@@ -0,0 +1,181 @@
+package sap.capire.xtravels.loadtest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Generates the travel data of db/data at a multiple of its size, by copying all Travels
+// with their Bookings, Supplements and transitions, and all Passengers, with shifted
+// IDs. Each copy of a Travel refers to the same copy of its Passenger, and to the same
+// Agencies, Flights and Supplements, so the generated data satisfies the same
+// constraints as the original data.
+public class DataGenerator {
+
+  private static final String PREFIX = "sap.capire.travels-";
+
+  private final Path source;
+  private final int scale;
+
+  public DataGenerator(Path source, int scale) {
+    this.source = source;
+    this.scale = scale;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int scale = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    Path target = Path.of(args.length > 1 ? args[1] : "target/data/" + scale + "x");
+    new DataGenerator(Path.of("../db/data"), scale).generate(target);
+  }
+
+  // the highest generated Travel ID
+  public int travels() throws IOException {
+    return scale * maxId("Travels.csv", ",", "ID");
+  }
+
+  public Path generate(Path target) throws IOException {
+    Files.createDirectories(target);
+    int travels = maxId("Travels.csv", ",", "ID");
+    int passengers = maxId("Passengers.csv", ";", "ID");
+    Map<Integer, Integer> nextPos = nextBookingPositions();
+
+    copy(target, "TravelAgencies.csv");
+    copy(target, "TravelStatus.csv");
+    copy(target, "TravelStatus.texts.csv");
+    scale(
+        target,
+        "Passengers.csv",
+        ";",
+        (k, row) -> row.put("ID", "%06d".formatted(k * passengers + number(row.get("ID")))));
+    scale(
+        target,
+        "Travels.csv",
+        ",",
+        (k, row) -> {
+          int id = Integer.parseInt(row.get("ID"));
+          row.put("NextBookingPos", String.valueOf(nextPos.getOrDefault(id, 1)));
+          row.put("ID", String.valueOf(k * travels + id));
+          row.put("Customer_ID", "%06d".formatted(k * passengers + number(row.get("Customer_ID"))));
+        });
+    scale(
+        target,
+        "Travels.transitions_.csv",
+        ",",
+        (k, row) -> row.put("up__ID", shift(row.get("up__ID"), k * travels)));
+    scale(
+        target,
+        "Bookings.csv",
+        ",",
+        (k, row) -> row.put("Travel_ID", shift(row.get("Travel_ID"), k * travels)));
+    scale(
+        target,
+        "Bookings.Supplements.csv",
+        ",",
+        (k, row) -> {
+          String id = k == 0 ? row.get("ID") : uuid(k, row.get("ID"));
+          row.put("ID", id);
+          row.put("up__Travel_ID", shift(row.get("up__Travel_ID"), k * travels));
+        });
+    return target;
+  }
+
+  private interface RowMapper {
+    void map(int copy, Map<String, String> row);
+  }
+
+  private void scale(Path target, String file, String delimiter, RowMapper mapper)
+      throws IOException {
+    List<String> lines = Files.readAllLines(source.resolve(PREFIX + file), StandardCharsets.UTF_8);
+    List<String> header = new ArrayList<>(split(lines.get(0), delimiter));
+    if (file.equals("Travels.csv")) header.add("NextBookingPos");
+
+    try (BufferedWriter out = Files.newBufferedWriter(target.resolve(PREFIX + file))) {
+      out.write(String.join(delimiter, header));
+      out.newLine();
+      for (int k = 0; k < scale; k++) {
+        for (String line : lines.subList(1, lines.size())) {
+          if (line.isBlank()) continue;
+          List<String> values = split(line, delimiter);
+          Map<String, String> row = new HashMap<>();
+          for (int i = 0; i < values.size(); i++) {
+            row.put(header.get(i), values.get(i));
+          }
+          mapper.map(k, row);
+          List<String> mapped = new ArrayList<>();
+          header.forEach(h -> mapped.add(row.getOrDefault(h, "")));
+          out.write(String.join(delimiter, mapped));
+          out.newLine();
+        }
+      }
+    }
+  }
+
+  private void copy(Path target, String file) throws IOException {
+    Files.copy(source.resolve(PREFIX + file), target.resolve(PREFIX + file));
+  }
+
+  private int maxId(String file, String delimiter, String column) throws IOException {
+    List<String> lines = Files.readAllLines(source.resolve(PREFIX + file), StandardCharsets.UTF_8);
+    int index = split(lines.get(0), delimiter).indexOf(column);
+    return lines.stream()
+        .skip(1)
+        .filter(l -> !l.isBlank())
+        .mapToInt(l -> number(split(l, delimiter).get(index)))
+        .max()
+        .orElse(0);
+  }
+
+  // next free Bookings.Pos per Travel ID
+  private Map<Integer, Integer> nextBookingPositions() throws IOException {
+    Map<Integer, Integer> nextPos = new HashMap<>();
+    List<String> lines = Files.readAllLines(source.resolve(PREFIX + "Bookings.csv"));
+    List<String> header = split(lines.get(0), ",");
+    int travel = header.indexOf("Travel_ID");
+    int pos = header.indexOf("Pos");
+    lines.stream()
+        .skip(1)
+        .filter(l -> !l.isBlank())
+        .map(l -> split(l, ","))
+        .forEach(
+            v ->
+                nextPos.merge(
+                    Integer.parseInt(v.get(travel)), Integer.parseInt(v.get(pos)) + 1, Math::max));
+    return nextPos;
+  }
+
+  // splits a CSV line, keeping quoted values as they are
+  static List<String> split(String line, String delimiter) {
+    List<String> values = new ArrayList<>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for (char c : line.toCharArray()) {
+      if (c == '"') quoted = !quoted;
+      if (!quoted && delimiter.charAt(0) == c) {
+        values.add(value.toString());
+        value.setLength(0);
+      } else {
+        value.append(c);
+      }
+    }
+    values.add(value.toString());
+    return values;
+  }
+
+  private static int number(String value) {
+    return Integer.parseInt(value.replace("\"", "").trim());
+  }
+
+  private static String shift(String id, int offset) {
+    return String.valueOf(Integer.parseInt(id) + offset);
+  }
+
+  private static String uuid(int copy, String id) {
+    return UUID.nameUUIDFromBytes((copy + ":" + id).getBytes(StandardCharsets.UTF_8)).toString();
+  }
+}
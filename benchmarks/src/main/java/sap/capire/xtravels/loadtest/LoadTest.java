@@ -0,0 +1,220 @@
+package sap.capire.xtravels.loadtest;
+
+import static sap.capire.xtravels.TestData.createTravelData;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import sap.capire.xtravels.Application;
+
+// Starts the application with data generated at the given scale, drives a mix of
+// OData requests against it from concurrent clients for the given duration, and reports
+// throughput and latency percentiles per request type, also to target/loadtest-<scale>x.json
+//
+// Arguments: scale (10), duration in seconds (60), concurrent clients (16)
+public class LoadTest {
+
+  private static final Pattern ID = Pattern.compile("\"ID\"\\s*:\\s*(\\d+)");
+
+  private final HttpClient client = HttpClient.newHttpClient();
+  private final String base;
+  private final int travels;
+
+  LoadTest(String base, int travels) {
+    this.base = base;
+    this.travels = travels;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int scale = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+    int clients = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+    Path data = Path.of("target/data/" + scale + "x").toAbsolutePath();
+    var generator = new DataGenerator(Path.of("../db/data"), scale);
+    if (!Files.exists(data)) generator.generate(data);
+    try (ConfigurableApplicationContext context = start(data)) {
+      String port = context.getEnvironment().getProperty("local.server.port");
+      var test = new LoadTest("http://localhost:" + port + "/odata/v4/travel", generator.travels());
+      Map<String, Stats> stats = test.run(Duration.ofSeconds(seconds), clients);
+      report(scale, seconds, clients, stats);
+    }
+  }
+
+  private static ConfigurableApplicationContext start(Path data) {
+    return new SpringApplicationBuilder(Application.class)
+        .properties(
+            "server.port=0",
+            "spring.main.banner-mode=off",
+            "logging.level.root=WARN",
+            "skip-initial-load=true",
+            "xtravels.federation.delta-sync.enabled=false",
+            "cds.data-source.csv.paths[0]=" + data + "/**",
+            "cds.data-source.csv.paths[1]=../node_modules/@capire/**",
+            "cds.data-source.csv.paths[2]=../../node_modules/@capire/**",
+            "cds.data-source.csv.paths[3]=target/cds/**",
+            "cds.data-source.csv.paths[4]=../target/cds/**")
+        .run();
+  }
+
+  Map<String, Stats> run(Duration duration, int clients) throws Exception {
+    long end = System.nanoTime() + duration.toNanos();
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    List<Future<Map<String, Stats>>> results = new ArrayList<>();
+    for (int i = 0; i < clients; i++) {
+      results.add(
+          executor.submit(
+              () -> {
+                Map<String, Stats> stats = new LinkedHashMap<>();
+                String created = null;
+                while (System.nanoTime() < end) {
+                  int travel = ThreadLocalRandom.current().nextInt(1, travels + 1);
+                  int scenario = ThreadLocalRandom.current().nextInt(100);
+                  if (scenario < 40) {
+                    measure(stats, "listTravels", () -> get(listTravels()));
+                  } else if (scenario < 70) {
+                    measure(stats, "readTravel", () -> get(readTravel(travel)));
+                  } else if (scenario < 85) {
+                    measure(stats, "valueHelpFlights", () -> get("/Flights?$top=20&$skip=20"));
+                  } else if (scenario < 95 || created == null) {
+                    String response = measure(stats, "createTravel", this::createTravel);
+                    Matcher id = ID.matcher(response == null ? "" : response);
+                    if (id.find()) created = id.group(1);
+                  } else {
+                    String id = created;
+                    measure(stats, "deductDiscount", () -> deductDiscount(id));
+                  }
+                }
+                return stats;
+              }));
+    }
+    Map<String, Stats> total = new LinkedHashMap<>();
+    for (var result : results) {
+      result
+          .get()
+          .forEach((name, stats) -> total.computeIfAbsent(name, n -> new Stats()).add(stats));
+    }
+    executor.shutdown();
+    return total;
+  }
+
+  private static String listTravels() {
+    return "/Travels?$filter=IsActiveEntity%20eq%20true&$orderby=ID%20desc&$top=30&$count=true";
+  }
+
+  private static String readTravel(int id) {
+    return "/Travels(ID=" + id + ",IsActiveEntity=true)?$expand=Bookings($expand=Supplements)";
+  }
+
+  private String createTravel() throws IOException, InterruptedException {
+    String travel = createTravelData(3, 1).toJson();
+    return send(request("/Travels").POST(BodyPublishers.ofString(travel)));
+  }
+
+  private String deductDiscount(String id) throws IOException, InterruptedException {
+    String action = "/Travels(ID=" + id + ",IsActiveEntity=true)/TravelService.deductDiscount";
+    return send(request(action).POST(BodyPublishers.ofString("{\"percent\":1}")));
+  }
+
+  private String get(String path) throws IOException, InterruptedException {
+    return send(request(path).GET());
+  }
+
+  private HttpRequest.Builder request(String path) {
+    String credentials = Base64.getEncoder().encodeToString("admin:".getBytes());
+    return HttpRequest.newBuilder(URI.create(base + path))
+        .header("Authorization", "Basic " + credentials)
+        .header("Content-Type", "application/json");
+  }
+
+  private String send(HttpRequest.Builder request) throws IOException, InterruptedException {
+    var response = client.send(request.build(), BodyHandlers.ofString());
+    if (response.statusCode() >= 400) {
+      throw new IOException("HTTP " + response.statusCode() + ": " + response.body());
+    }
+    return response.body();
+  }
+
+  private interface Request {
+    String send() throws Exception;
+  }
+
+  private static String measure(Map<String, Stats> stats, String name, Request request) {
+    Stats s = stats.computeIfAbsent(name, n -> new Stats());
+    long start = System.nanoTime();
+    try {
+      String response = request.send();
+      s.latencies.add(System.nanoTime() - start);
+      return response;
+    } catch (Exception e) {
+      s.errors++;
+      return null;
+    }
+  }
+
+  private static void report(int scale, int seconds, int clients, Map<String, Stats> stats)
+      throws IOException {
+    List<String> json = new ArrayList<>();
+    System.out.printf("%nLoad test at %dx scale, %d clients, %ds%n", scale, clients, seconds);
+    System.out.printf(
+        "%-18s %10s %8s %10s %10s %10s%n",
+        "request", "count", "errors", "req/s", "p50 ms", "p99 ms");
+    stats.forEach(
+        (name, s) -> {
+          double throughput = (double) s.latencies.size() / seconds;
+          double p50 = s.percentile(50) / 1e6;
+          double p99 = s.percentile(99) / 1e6;
+          System.out.printf(
+              "%-18s %10d %8d %10.1f %10.2f %10.2f%n",
+              name, s.latencies.size(), s.errors, throughput, p50, p99);
+          json.add(
+              "\"%s\":{\"count\":%d,\"errors\":%d,\"throughput\":%.1f,\"p50\":%.2f,\"p99\":%.2f}"
+                  .formatted(name, s.latencies.size(), s.errors, throughput, p50, p99));
+        });
+    Path result = Path.of("target/loadtest-" + scale + "x.json");
+    Files.createDirectories(result.getParent());
+    Files.writeString(
+        result,
+        "{\"scale\":%d,\"clients\":%d,\"seconds\":%d,\"requests\":{%s}}"
+            .formatted(scale, clients, seconds, String.join(",", json)),
+        StandardCharsets.UTF_8);
+  }
+
+  static class Stats {
+
+    final List<Long> latencies = new ArrayList<>();
+    int errors;
+
+    void add(Stats other) {
+      latencies.addAll(other.latencies);
+      errors += other.errors;
+    }
+
+    long percentile(int percentile) {
+      if (latencies.isEmpty()) return 0;
+      List<Long> sorted = latencies.stream().sorted().toList();
+      int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+      return sorted.get(Math.max(0, index));
+    }
+  }
+}
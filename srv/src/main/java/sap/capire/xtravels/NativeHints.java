@@ -0,0 +1,134 @@
+package sap.capire.xtravels;
+
+import com.sap.cds.services.handler.EventHandler;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.type.classreading.SimpleMetadataReaderFactory;
+import org.springframework.util.ClassUtils;
+
+// Reachability metadata for the native image, see the native profile in pom.xml.
+// The CDS runtime accesses the generated cds.gen interfaces through JDK proxies and
+// reflection, invokes the annotated methods of the event handlers reflectively, and
+// reads the compiled model, the database schema and messages as resources.
+//
+// Caffeine instantiates the cache and node classes generated for the features of a cache by
+// name, and the Cloud SDK, e.g. its ResilienceDecorator backed by Resilience4j, finds its
+// implementations with the ServiceLoader. BulkDataLoader reads and writes its snapshots with
+// Java serialization. Beans of profiles, e.g. virtual-threads or bulk-load, are only part of
+// the image if these are active in process-aot, see native.profiles in pom.xml.
+class NativeHints implements RuntimeHintsRegistrar {
+
+  @Override
+  public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+    for (Class<?> type : classes("cds/gen/**/*.class", classLoader)) {
+      hints
+          .reflection()
+          .registerType(
+              type,
+              MemberCategory.INVOKE_PUBLIC_METHODS,
+              MemberCategory.PUBLIC_FIELDS,
+              MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+      if (type.isInterface()) {
+        hints.proxies().registerJdkProxy(type);
+      }
+    }
+    for (Class<?> type : classes("sap/capire/xtravels/handler/*.class", classLoader)) {
+      if (EventHandler.class.isAssignableFrom(type)) {
+        hints.reflection().registerType(type, MemberCategory.INVOKE_DECLARED_METHODS);
+      }
+    }
+    for (Class<?> type :
+        classes(
+            "com/github/benmanes/caffeine/cache/*.class",
+            name -> ClassUtils.getShortName(name).matches("[A-Z]+"),
+            classLoader)) {
+      hints
+          .reflection()
+          .registerType(
+              type, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.DECLARED_FIELDS);
+    }
+    for (Class<?> type : serviceProviders("com.sap.cloud.sdk.*", classLoader)) {
+      hints.reflection().registerType(type, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+    }
+    for (Class<? extends Serializable> type :
+        List.<Class<? extends Serializable>>of(
+            Object[].class,
+            String[].class,
+            Boolean.class,
+            Number.class,
+            Integer.class,
+            Long.class,
+            BigInteger.class,
+            BigDecimal.class,
+            LocalDate.class,
+            LocalTime.class,
+            LocalDateTime.class)) {
+      hints.serialization().registerType(type);
+    }
+    hints.serialization().registerType(TypeReference.of("java.time.Ser"));
+    hints
+        .resources()
+        .registerPattern("META-INF/services/com.sap.cloud.sdk.*")
+        .registerPattern("edmx/**")
+        .registerPattern("ams/**")
+        .registerPattern("*-h2.sql")
+        .registerPattern("messages*.properties");
+  }
+
+  private static List<Class<?>> classes(String pattern, ClassLoader classLoader) {
+    return classes(pattern, name -> true, classLoader);
+  }
+
+  private static List<Class<?>> classes(
+      String pattern, Predicate<String> names, ClassLoader classLoader) {
+    List<Class<?>> classes = new ArrayList<>();
+    var resolver = new PathMatchingResourcePatternResolver(classLoader);
+    var readers = new SimpleMetadataReaderFactory(resolver);
+    try {
+      for (Resource resource : resolver.getResources("classpath*:" + pattern)) {
+        String name = readers.getMetadataReader(resource).getClassMetadata().getClassName();
+        if (names.test(name)) {
+          classes.add(ClassUtils.resolveClassName(name, classLoader));
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return classes;
+  }
+
+  // the implementations listed in the META-INF/services files of the given services
+  private static List<Class<?>> serviceProviders(String services, ClassLoader classLoader) {
+    List<Class<?>> providers = new ArrayList<>();
+    var resolver = new PathMatchingResourcePatternResolver(classLoader);
+    try {
+      for (Resource resource : resolver.getResources("classpath*:META-INF/services/" + services)) {
+        for (String line : resource.getContentAsString(StandardCharsets.UTF_8).split("\\R")) {
+          String name = line.replaceFirst("#.*", "").strip();
+          if (!name.isEmpty() && ClassUtils.isPresent(name, classLoader)) {
+            providers.add(ClassUtils.resolveClassName(name, classLoader));
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return providers;
+  }
+}
@@ -0,0 +1,384 @@
+package sap.capire.xtravels.handler;
+
+import com.sap.cds.reflect.CdsAssociationType;
+import com.sap.cds.reflect.CdsEntity;
+import com.sap.cds.reflect.CdsModel;
+import com.sap.cds.services.application.ApplicationLifecycleService;
+import com.sap.cds.services.application.ApplicationPreparedEventContext;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.Before;
+import com.sap.cds.services.runtime.CdsRuntime;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+// Loads the CSV files of cds.data-source.csv.paths with batched JDBC inserts, instead of
+// CAP's inserts per row, when enabled with the bulk-load profile. The tables are loaded in
+// parallel, in waves following their to-one associations, so referenced rows come first.
+// Tables that already contain rows are left as they are.
+//
+// The parsed rows are saved to a binary snapshot, named by the checksum of all CSV files and
+// the columns of their tables. As long as these are unchanged, later starts restore the
+// snapshot without parsing CSV.
+@Component
+@Profile("bulk-load")
+class BulkDataLoader implements EventHandler {
+
+  private static final Logger logger = LoggerFactory.getLogger(BulkDataLoader.class);
+  private static final ObjectInputFilter SNAPSHOT_VALUES =
+      ObjectInputFilter.Config.createFilter("java.lang.*;java.math.*;java.time.*;!*");
+
+  private final JdbcTemplate jdbc;
+  private final AsyncTaskExecutor executor;
+  private final int batchSize;
+  private final Path snapshots;
+
+  BulkDataLoader(
+      JdbcTemplate jdbc,
+      Environment env,
+      @Qualifier("applicationTaskExecutor") AsyncTaskExecutor executor) {
+    this.jdbc = jdbc;
+    this.executor = executor;
+    this.batchSize = env.getProperty("xtravels.bulk-load.batch-size", Integer.class, 1000);
+    String snapshots = env.getProperty("xtravels.bulk-load.snapshots");
+    this.snapshots = snapshots == null ? null : Path.of(snapshots);
+  }
+
+  // before the initial load and other handlers of the prepared event, which read the data
+  @Before(serviceType = ApplicationLifecycleService.class)
+  void load(ApplicationPreparedEventContext context) {
+    long start = System.nanoTime();
+    CdsRuntime runtime = context.getCdsRuntime();
+    List<String> paths =
+        runtime.getEnvironment().getCdsProperties().getDataSource().getCsv().getPaths();
+    Map<String, Path> files = csvFiles(runtime.getCdsModel(), paths);
+    Map<String, Map<String, Integer>> columns = new TreeMap<>();
+    files.keySet().forEach(entity -> columns.put(entity, columnTypes(tableName(entity))));
+    Path snapshot =
+        snapshots == null ? null : snapshots.resolve(checksum(files, columns) + ".bin.gz");
+    boolean restore = snapshot != null && Files.exists(snapshot);
+    List<Table> tables = restore ? restore(snapshot) : load(runtime.getCdsModel(), files, columns);
+    if (snapshot != null && !restore) save(snapshot, tables);
+    logger.info(
+        "Loaded {} rows into {} tables{} in {} ms",
+        tables.stream().mapToInt(t -> t.rows().size()).sum(),
+        tables.size(),
+        restore ? " from " + snapshot : "",
+        (System.nanoTime() - start) / 1_000_000);
+  }
+
+  // the CSV files by the entity they're loaded into, skipping those without a table
+  private Map<String, Path> csvFiles(CdsModel model, List<String> paths) {
+    var resolver = new PathMatchingResourcePatternResolver();
+    Map<String, Path> files = new TreeMap<>();
+    for (String path : paths) {
+      try {
+        for (Resource resource : resolver.getResources("file:" + path + "/*.csv")) {
+          Path file = resource.getFile().toPath();
+          String entity =
+              file.getFileName().toString().replaceFirst("\\.csv$", "").replace('-', '.');
+          if (model.findEntity(entity).filter(BulkDataLoader::isTable).isPresent()) {
+            files.putIfAbsent(entity, file);
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return files;
+  }
+
+  private List<Table> load(
+      CdsModel model, Map<String, Path> files, Map<String, Map<String, Integer>> columns) {
+    List<Table> tables = new ArrayList<>();
+    for (List<String> wave : waves(model, files.keySet())) {
+      List<CompletableFuture<Table>> loads =
+          wave.stream()
+              .map(
+                  entity ->
+                      CompletableFuture.supplyAsync(
+                          () -> load(entity, files.get(entity), columns.get(entity)), executor))
+              .toList();
+      loads.forEach(load -> tables.add(load.join()));
+    }
+    return tables;
+  }
+
+  private Table load(String entity, Path file, Map<String, Integer> types) {
+    String csv;
+    try {
+      csv = Files.readString(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    List<List<String>> records = records(csv);
+    if (records.isEmpty()) return new Table(tableName(entity), List.of(), List.of());
+
+    List<String> columns = records.get(0);
+    List<Object[]> rows = new ArrayList<>(records.size() - 1);
+    for (List<String> record : records.subList(1, records.size())) {
+      Object[] row = new Object[columns.size()];
+      for (int i = 0; i < row.length && i < record.size(); i++) {
+        row[i] = value(record.get(i), types.get(columns.get(i).toUpperCase()));
+      }
+      rows.add(row);
+    }
+    Table table = new Table(tableName(entity), columns, rows);
+    insert(table);
+    return table;
+  }
+
+  private void insert(Table table) {
+    if (table.rows().isEmpty()) return;
+    Integer existing = jdbc.queryForObject("SELECT COUNT(*) FROM " + table.name(), Integer.class);
+    if (existing != null && existing > 0) {
+      logger.info("Skipped loading {}, which already contains rows", table.name());
+      return;
+    }
+    String sql =
+        "INSERT INTO %s (%s) VALUES (%s)"
+            .formatted(
+                table.name(),
+                String.join(", ", table.columns()),
+                String.join(", ", table.columns().stream().map(c -> "?").toList()));
+    jdbc.batchUpdate(
+        sql,
+        table.rows(),
+        batchSize,
+        (statement, row) -> {
+          for (int i = 0; i < row.length; i++) {
+            statement.setObject(i + 1, row[i]);
+          }
+        });
+  }
+
+  private Map<String, Integer> columnTypes(String table) {
+    return jdbc.query(
+        "SELECT * FROM " + table + " WHERE 1 = 0",
+        result -> {
+          ResultSetMetaData metaData = result.getMetaData();
+          Map<String, Integer> types = new LinkedHashMap<>();
+          for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            types.put(metaData.getColumnName(i).toUpperCase(), metaData.getColumnType(i));
+          }
+          return types;
+        });
+  }
+
+  // converts a CSV field to the value of the column's type, empty fields are null
+  static Object value(String field, Integer type) {
+    if (field.isEmpty() || type == null) return field.isEmpty() ? null : field;
+    return switch (type) {
+      case Types.TINYINT, Types.SMALLINT, Types.INTEGER -> Integer.valueOf(field);
+      case Types.BIGINT -> Long.valueOf(field);
+      case Types.DECIMAL, Types.NUMERIC, Types.REAL, Types.FLOAT, Types.DOUBLE ->
+          new BigDecimal(field);
+      case Types.BOOLEAN, Types.BIT -> field.equals("1") || field.equalsIgnoreCase("true");
+      case Types.DATE -> LocalDate.parse(field);
+      case Types.TIME -> LocalTime.parse(field);
+      case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> timestamp(field);
+      default -> field;
+    };
+  }
+
+  // timestamps with an offset, e.g. Z, are converted to UTC, like CAP stores them
+  private static LocalDateTime timestamp(String field) {
+    TemporalAccessor parsed =
+        DateTimeFormatter.ISO_DATE_TIME.parseBest(
+            field.replace(' ', 'T'), OffsetDateTime::from, LocalDateTime::from);
+    return parsed instanceof OffsetDateTime timestamp
+        ? LocalDateTime.ofInstant(timestamp.toInstant(), ZoneOffset.UTC)
+        : (LocalDateTime) parsed;
+  }
+
+  // records of a CSV file, separated by ; if its header contains one, otherwise by ,
+  static List<List<String>> records(String csv) {
+    if (csv.startsWith("\uFEFF")) csv = csv.substring(1); // byte order mark
+    String header = csv.lines().findFirst().orElse("");
+    return parse(csv, header.contains(";") ? ';' : ',');
+  }
+
+  // records of fields, separated by the given separator and optionally quoted with "
+  static List<List<String>> parse(String csv, char separator) {
+    List<List<String>> records = new ArrayList<>();
+    List<String> record = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < csv.length(); i++) {
+      char c = csv.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < csv.length() && csv.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == separator) {
+        record.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\n' || c == '\r') {
+        if (c == '\r' && i + 1 < csv.length() && csv.charAt(i + 1) == '\n') i++;
+        if (!record.isEmpty() || field.length() > 0) {
+          record.add(field.toString());
+          records.add(record);
+        }
+        record = new ArrayList<>();
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    if (!record.isEmpty() || field.length() > 0) {
+      record.add(field.toString());
+      records.add(record);
+    }
+    return records;
+  }
+
+  // the entities in waves, each after the targets of its to-one associations
+  private static List<List<String>> waves(CdsModel model, Set<String> entities) {
+    Map<String, Set<String>> pending = new LinkedHashMap<>();
+    for (String name : entities) {
+      Set<String> targets = new HashSet<>();
+      model
+          .getEntity(name)
+          .associations()
+          .map(a -> a.<CdsAssociationType>getType())
+          .filter(a -> !a.isComposition() && a.refs().findAny().isPresent())
+          .map(a -> a.getTarget().getQualifiedName())
+          .filter(target -> entities.contains(target) && !target.equals(name))
+          .forEach(targets::add);
+      pending.put(name, targets);
+    }
+    List<List<String>> waves = new ArrayList<>();
+    Set<String> loaded = new HashSet<>();
+    while (!pending.isEmpty()) {
+      List<String> wave =
+          pending.entrySet().stream()
+              .filter(e -> loaded.containsAll(e.getValue()))
+              .map(Map.Entry::getKey)
+              .toList();
+      if (wave.isEmpty()) wave = List.copyOf(pending.keySet()); // cyclic associations
+      wave.forEach(pending::remove);
+      loaded.addAll(wave);
+      waves.add(wave);
+    }
+    return waves;
+  }
+
+  private static boolean isTable(CdsEntity entity) {
+    return !entity.isAbstract()
+        && !entity.getAnnotationValue("cds.persistence.skip", false)
+        && (!entity.isView() || entity.getAnnotationValue("cds.persistence.table", false));
+  }
+
+  private static String tableName(String entity) {
+    return entity.replace('.', '_');
+  }
+
+  private static String checksum(
+      Map<String, Path> files, Map<String, Map<String, Integer>> columns) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for (var file : files.entrySet()) {
+        digest.update(file.getKey().getBytes());
+        digest.update(columns.get(file.getKey()).toString().getBytes());
+        digest.update(Files.readAllBytes(file.getValue()));
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void save(Path snapshot, List<Table> tables) {
+    try {
+      Files.createDirectories(snapshot.getParent());
+      Path written = Files.createTempFile(snapshot.getParent(), "snapshot", ".tmp");
+      try (var out = new ObjectOutputStream(new GZIPOutputStream(Files.newOutputStream(written)))) {
+        out.writeInt(tables.size());
+        for (Table table : tables) {
+          out.writeUTF(table.name());
+          out.writeObject(table.columns().toArray(String[]::new));
+          out.writeInt(table.rows().size());
+          for (Object[] row : table.rows()) {
+            out.writeObject(row);
+          }
+          out.reset();
+        }
+      }
+      Files.move(written, snapshot, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.warn("Failed to save the data snapshot {}", snapshot, e);
+    }
+  }
+
+  private List<Table> restore(Path snapshot) {
+    List<Table> tables = new ArrayList<>();
+    try (var in = new ObjectInputStream(new GZIPInputStream(Files.newInputStream(snapshot)))) {
+      in.setObjectInputFilter(SNAPSHOT_VALUES);
+      int count = in.readInt();
+      for (int t = 0; t < count; t++) {
+        String name = in.readUTF();
+        List<String> columns = List.of((String[]) in.readObject());
+        int size = in.readInt();
+        List<Object[]> rows = new ArrayList<>(size);
+        for (int r = 0; r < size; r++) {
+          rows.add((Object[]) in.readObject());
+        }
+        Table table = new Table(name, columns, rows);
+        insert(table);
+        tables.add(table);
+      }
+    } catch (IOException | ClassNotFoundException e) {
+      throw new IllegalStateException("Failed to restore the data snapshot " + snapshot, e);
+    }
+    return tables;
+  }
+
+  private record Table(String name, List<String> columns, List<Object[]> rows) {}
+}
@@ -0,0 +1,123 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.sap.capire.travels.TravelsModel_.BOOKINGS;
+import static com.sap.cds.services.cds.CqnService.EVENT_CREATE;
+import static com.sap.cds.services.cds.CqnService.EVENT_UPDATE;
+import static com.sap.cds.services.cds.CqnService.EVENT_UPSERT;
+
+import cds.gen.travelservice.Bookings;
+import cds.gen.travelservice.TravelService_;
+import cds.gen.travelservice.Travels;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Select;
+import com.sap.cds.services.EventContext;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.After;
+import com.sap.cds.services.handler.annotations.ServiceName;
+import com.sap.cds.services.messages.MessageTarget;
+import com.sap.cds.services.messages.Messages;
+import com.sap.cds.services.persistence.PersistenceService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+import org.springframework.stereotype.Component;
+
+// Checks the Bookings written, also with Travels by deep inserts or activations, against
+// their Travel. Instead of evaluating @assert constraints per Booking, all Bookings of a
+// statement are checked with a single query that only returns the violating ones.
+// Each violation is reported with a message targeting the Booking's element.
+@Component
+@ServiceName(TravelService_.CDS_NAME)
+class ConstraintHandler implements EventHandler {
+
+  private final PersistenceService db;
+
+  ConstraintHandler(PersistenceService db) {
+    this.db = db;
+  }
+
+  @After(event = {EVENT_CREATE, EVENT_UPDATE, EVENT_UPSERT})
+  void checkTravelBookings(EventContext context, List<Travels> travels) {
+    Set<BookingKey> written = new HashSet<>();
+    for (Travels travel : travels) {
+      if (travel.getBookings() != null) {
+        for (Bookings booking : travel.getBookings()) {
+          written.add(new BookingKey(travel.getId(), booking.getPos()));
+        }
+      }
+    }
+    check(
+        context,
+        written,
+        (pos, element) ->
+            MessageTarget.create(
+                t -> t.to("Bookings").filter(b -> b.get("Pos").eq(pos)).get(element)));
+  }
+
+  @After(event = {EVENT_CREATE, EVENT_UPDATE, EVENT_UPSERT})
+  void checkBookings(EventContext context, List<Bookings> bookings) {
+    Set<BookingKey> written = new HashSet<>();
+    for (Bookings booking : bookings) {
+      written.add(new BookingKey(booking.getTravelId(), booking.getPos()));
+    }
+    check(context, written, (pos, element) -> MessageTarget.create(element));
+  }
+
+  private void check(
+      EventContext context,
+      Set<BookingKey> written,
+      BiFunction<Integer, String, MessageTarget> target) {
+    if (written.isEmpty()) return;
+
+    var flightDate = CQL.get("Flight_date");
+    var currency = CQL.get("Currency_code");
+    var violations =
+        Select.from(BOOKINGS)
+            .columns(
+                CQL.get("Travel_ID").as("travel"),
+                CQL.get("Pos").as("pos"),
+                flightDate.as("date"),
+                currency.as("currency"),
+                CQL.get("Travel.BeginDate").as("begin"),
+                CQL.get("Travel.EndDate").as("end"),
+                CQL.get("Travel.Currency_code").as("travelCurrency"))
+            .where(
+                CQL.and(
+                    CQL.get("Travel_ID")
+                        .in(written.stream().map(BookingKey::travel).distinct().toList()),
+                    CQL.or(
+                        List.of(
+                            flightDate.lt(CQL.get("Travel.BeginDate")),
+                            flightDate.gt(CQL.get("Travel.EndDate")),
+                            currency.ne(CQL.get("Travel.Currency_code"))))));
+
+    Messages messages = context.getMessages();
+    for (var row : db.run(violations)) {
+      int pos = (Integer) row.get("pos");
+      if (!written.contains(new BookingKey((Integer) row.get("travel"), pos))) continue;
+
+      Object date = row.get("date");
+      if (date != null && (isBefore(date, row.get("begin")) || isBefore(row.get("end"), date))) {
+        messages.error("ASSERT_BOOKINGS_IN_TRAVEL_PERIOD").target(target.apply(pos, "Flight_date"));
+      }
+      Object code = row.get("currency");
+      if (code != null
+          && row.get("travelCurrency") != null
+          && !Objects.equals(code, row.get("travelCurrency"))) {
+        messages
+            .error("ASSERT_BOOKING_CURRENCY_MATCHES_TRAVEL")
+            .target(target.apply(pos, "Currency_code"));
+      }
+    }
+    messages.throwIfError();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static boolean isBefore(Object date, Object other) {
+    return other != null && ((Comparable<Object>) date).compareTo(other) < 0;
+  }
+
+  private record BookingKey(Integer travel, Integer pos) {}
+}
@@ -3,16 +3,32 @@ package sap.capire.xtravels.handler;
 import static cds.gen.travelservice.TravelService_.TRAVELS;
 import static com.sap.cds.services.cds.CqnService.EVENT_CREATE;
 import static com.sap.cds.services.draft.DraftService.EVENT_DRAFT_NEW;
+import static java.util.stream.Collectors.groupingBy;
 
+import cds.gen.sap.capire.travels.TravelsModel_;
 import cds.gen.travelservice.Bookings;
 import cds.gen.travelservice.Bookings_;
 import cds.gen.travelservice.TravelService;
 import cds.gen.travelservice.TravelService_;
 import cds.gen.travelservice.Travels;
+import cds.gen.travelservice.Travels_;
+import com.sap.cds.ql.CQL;
 import com.sap.cds.ql.Select;
+import com.sap.cds.ql.Update;
+import com.sap.cds.ql.cqn.CqnStructuredTypeRef;
+import com.sap.cds.services.ErrorStatuses;
+import com.sap.cds.services.EventContext;
+import com.sap.cds.services.ServiceException;
 import com.sap.cds.services.handler.EventHandler;
 import com.sap.cds.services.handler.annotations.Before;
+import com.sap.cds.services.handler.annotations.HandlerOrder;
+import com.sap.cds.services.handler.annotations.On;
 import com.sap.cds.services.handler.annotations.ServiceName;
+import com.sap.cds.services.persistence.PersistenceService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.List;
+import java.util.Objects;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -20,42 +36,110 @@ import org.springframework.stereotype.Component;
 class CreationHandler implements EventHandler {
 
   private final TravelService service;
+  private final PersistenceService db;
+  private final TravelIdSequence travelIds;
+  private final Timer travelIdTimer;
+  private final Timer bookingPosTimer;
 
-  CreationHandler(TravelService service) {
+  CreationHandler(
+      TravelService service,
+      PersistenceService db,
+      TravelIdSequence travelIds,
+      MeterRegistry registry) {
     this.service = service;
+    this.db = db;
+    this.travelIds = travelIds;
+    this.travelIdTimer = registry.timer("xtravels.travel_ids");
+    this.bookingPosTimer = registry.timer("xtravels.booking_positions");
   }
 
   // Fill in alternative keys as consecutive numbers for new Travels, Bookings, and Supplements.
   // Note: For Travels that can't be done at NEW events, that is when drafts are created,
   // but on CREATE only, as multiple users could create new Travels concurrently.
+  // IDs are drawn from a sequence, so concurrent activations don't get the same one.
   @Before(event = EVENT_CREATE)
   void calculateTravelId(final Travels travel) {
-    var result =
-        service.run(
-            Select.from(TRAVELS)
-                .where(t -> t.IsActiveEntity().eq(true))
-                .columns(t -> t.ID().max().as("maxID")));
-    int maxId = (int) result.single().get("maxID");
-    travel.setId(++maxId);
+    travel.setId(travelIdTimer.record(travelIds::next));
 
+    int nextPos = 1;
     if (travel.getBookings() != null) {
-      int nextPos = 1;
       for (Bookings booking : travel.getBookings()) {
         booking.setPos(nextPos++);
       }
     }
+    travel.setNextBookingPos(nextPos);
   }
 
-  // Fill in IDs as sequence numbers -> could be automated by auto-generation
+  // A Travel ID colliding with a Travel inserted otherwise, e.g. by the bulk loader, discards
+  // the rest of the reserved block, so that the next IDs continue after the highest one.
+  @On(event = EVENT_CREATE, entity = Travels_.CDS_NAME)
+  @HandlerOrder(HandlerOrder.EARLY)
+  void discardCollidingTravelIds(EventContext context) {
+    try {
+      context.proceed();
+    } catch (ServiceException e) {
+      if (TravelIdSequence.isUniqueConstraintViolation(e)) {
+        travelIds.discard();
+      }
+      throw e;
+    }
+  }
+
+  // Fill in Pos as sequence numbers from the parent Travel's NextBookingPos counter,
+  // which hands out consecutive numbers to all Bookings created in one go.
   @Before(event = {EVENT_CREATE, EVENT_DRAFT_NEW})
-  void calculateBookingPos(Bookings_ ref, final Bookings booking) {
-    var result = service.run(Select.from(ref).columns(t -> t.Pos().max().as("maxPos")));
-    var maxPos = result.single().get("maxPos");
-    if (maxPos == null) {
-      booking.setPos(1);
+  void calculateBookingPos(Bookings_ ref, List<Bookings> bookings, EventContext context) {
+    boolean draft = context.getEvent().equals(EVENT_DRAFT_NEW);
+    CqnStructuredTypeRef target = ref.asRef();
+    if (target.size() > 1) {
+      var travel = CQL.entity(TRAVELS, CQL.to(target.rootSegment()));
+      assignPositions(travel, bookings, draft);
     } else {
-      int pos = (int) maxPos;
-      booking.setPos(++pos);
+      // Bookings inserted directly, not via their Travel
+      if (bookings.stream().map(Bookings::getTravelId).anyMatch(Objects::isNull)) {
+        throw new ServiceException(ErrorStatuses.BAD_REQUEST, "ASSERT_BOOKING_TRAVEL_REQUIRED")
+            .messageTarget(Bookings.TRAVEL_ID);
+      }
+      bookings.stream()
+          .collect(groupingBy(Bookings::getTravelId))
+          .forEach(
+              (travelId, group) -> {
+                var travel =
+                    CQL.entity(TRAVELS)
+                        .filter(t -> t.ID().eq(travelId).and(t.IsActiveEntity().eq(true)));
+                assignPositions(travel, group, draft);
+              });
+    }
+  }
+
+  private void assignPositions(Travels_ travel, List<Bookings> bookings, boolean draft) {
+    bookingPosTimer.record(() -> doAssignPositions(travel, bookings, draft));
+  }
+
+  private void doAssignPositions(Travels_ travel, List<Bookings> bookings, boolean draft) {
+    var select = Select.from(travel).columns(t -> t.ID(), t -> t.NextBookingPos());
+    Travels current = service.run(draft ? select : select.lock()).single(Travels.class);
+    Integer nextPos = current.getNextBookingPos();
+    if (nextPos == null) {
+      // Travels that predate the counter start off after their highest Pos
+      var result =
+          service.run(Select.from(travel.Bookings()).columns(b -> b.Pos().max().as("maxPos")));
+      var maxPos = result.single().get("maxPos");
+      nextPos = maxPos == null ? 1 : (int) maxPos + 1;
+    }
+    for (Bookings booking : bookings) {
+      booking.setPos(nextPos++);
+    }
+    service.run(
+        Update.entity(travel).data(Travels.NEXT_BOOKING_POS, nextPos).hint("@readonly", false));
+    if (draft) {
+      // With cds.drafts.enforce-readonly the draft's counter isn't carried over on activation,
+      // so it's advanced on the active Travel, if there's one, right away.
+      Integer id = current.getId();
+      db.run(
+          Update.entity(TravelsModel_.TRAVELS)
+              .data(Travels.NEXT_BOOKING_POS, nextPos)
+              .where(t -> t.ID().eq(id)));
     }
   }
 }
@@ -1,50 +1,111 @@
 package sap.capire.xtravels.handler;
 
+import static cds.gen.sap.capire.travels.TravelsModel_.TRAVELS;
+
+import cds.gen.travelservice.DiscountResult;
 import cds.gen.travelservice.TravelService;
 import cds.gen.travelservice.TravelService_;
 import cds.gen.travelservice.Travels;
 import cds.gen.travelservice.TravelsDeductDiscountContext;
+import cds.gen.travelservice.TravelsDeductDiscountsContext;
 import cds.gen.travelservice.Travels_;
+import com.sap.cds.ql.CQL;
 import com.sap.cds.ql.Select;
 import com.sap.cds.ql.Update;
+import com.sap.cds.ql.cqn.CqnValue;
 import com.sap.cds.services.handler.EventHandler;
 import com.sap.cds.services.handler.annotations.On;
 import com.sap.cds.services.handler.annotations.ServiceName;
+import com.sap.cds.services.persistence.PersistenceService;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.math.BigDecimal;
-import java.math.MathContext;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.springframework.stereotype.Component;
 
 @Component
 @ServiceName(TravelService_.CDS_NAME)
 class DeductDiscountHandler implements EventHandler {
 
+  private static final String TRAVELS_DRAFTS = TravelService_.CDS_NAME + ".Travels_drafts";
+
   private final TravelService service;
+  private final PersistenceService db;
+  private final MeterRegistry registry;
 
-  DeductDiscountHandler(TravelService service) {
+  DeductDiscountHandler(TravelService service, PersistenceService db, MeterRegistry registry) {
     this.service = service;
+    this.db = db;
+    this.registry = registry;
   }
 
+  // Computes the discounted prices within the UPDATE, so concurrent changes of the
+  // TotalPrice, e.g. by RecalculatePriceHandler, can't get lost in between. Prices are
+  // rounded to two decimals, like in deductDiscounts. CQN has no RETURNING clause, so the
+  // updated Travel is read again to return it.
   @On
   Travels deductDiscount(Travels_ ref, final TravelsDeductDiscountContext context) {
-    var travel = service.run(Select.from(ref)).single();
-    BigDecimal discount = BigDecimal.valueOf(context.getPercent() / 100.0);
-
-    travel.setBookingFee(
-        travel
-            .getBookingFee()
-            .subtract(travel.getBookingFee().multiply(discount))
-            .round(new MathContext(3)));
-    travel.setTotalPrice(
-        travel
-            .getTotalPrice()
-            .subtract(travel.getTotalPrice().multiply(discount))
-            .round(new MathContext(3)));
-
-    Travels update = Travels.create();
-    update.setTotalPrice(travel.getTotalPrice());
-    update.setBookingFee(travel.getBookingFee());
-    service.run(Update.entity(ref).data(update).hint("@readonly", false));
-
-    return travel;
+    BigDecimal factor = factor(context.getPercent());
+    service.run(
+        Update.entity(ref)
+            .set(Travels.BOOKING_FEE, discounted(Travels.BOOKING_FEE, factor))
+            .set(Travels.TOTAL_PRICE, discounted(Travels.TOTAL_PRICE, factor))
+            .hint("@readonly", false));
+    registry.counter("xtravels.discounts", "action", "deductDiscount").increment();
+
+    return service.run(Select.from(ref)).single();
+  }
+
+  // Applies the discount to all given Travels, which are #Open, with a single UPDATE.
+  // The @from: [#Open] restriction of the flow can't be checked for collection-bound
+  // actions, so it's part of the UPDATE's condition instead.
+  // Travels edited in a draft, by any user, are skipped, as activating the draft would
+  // overwrite the discounted prices. They're checked after locking the open Travels.
+  @On
+  DiscountResult deductDiscounts(final TravelsDeductDiscountsContext context) {
+    Collection<Integer> travels = context.getTravels();
+    BigDecimal factor = factor(context.getPercent());
+
+    var open =
+        Select.from(TRAVELS)
+            .columns(t -> t.ID())
+            .where(t -> t.ID().in(List.copyOf(travels)).and(t.Status_code().eq("O")))
+            .lock();
+    List<Integer> candidates = db.run(open).stream().map(t -> t.getId()).toList();
+    Set<Integer> drafted = drafted(candidates);
+    List<Integer> discounted =
+        candidates.stream().filter(id -> !drafted.contains(id)).sorted().distinct().toList();
+    if (!discounted.isEmpty()) {
+      db.run(
+          Update.entity(TRAVELS)
+              .set(Travels.BOOKING_FEE, discounted(Travels.BOOKING_FEE, factor))
+              .set(Travels.TOTAL_PRICE, discounted(Travels.TOTAL_PRICE, factor))
+              .where(t -> t.ID().in(discounted)));
+    }
+
+    registry
+        .counter("xtravels.discounts", "action", "deductDiscounts")
+        .increment(discounted.size());
+
+    DiscountResult result = DiscountResult.create();
+    result.setDiscounted(discounted);
+    result.setSkipped(travels.stream().filter(id -> !discounted.contains(id)).distinct().toList());
+    return result;
+  }
+
+  private Set<Integer> drafted(List<Integer> travels) {
+    if (travels.isEmpty()) return Set.of();
+    var drafts = Select.from(TRAVELS_DRAFTS).columns("ID").where(d -> d.get("ID").in(travels));
+    return db.run(drafts).stream().map(d -> (Integer) d.get("ID")).collect(Collectors.toSet());
+  }
+
+  private static BigDecimal factor(int percent) {
+    return BigDecimal.valueOf(100 - percent).movePointLeft(2);
+  }
+
+  private static CqnValue discounted(String price, BigDecimal factor) {
+    return CQL.func("round", CQL.get(price).times(factor), CQL.constant(2));
   }
 }
@@ -0,0 +1,199 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.sap.capire.xflights.Xflights_.REPLICATIONS;
+
+import cds.gen.sap.capire.flights.data.Data;
+import cds.gen.sap.capire.xflights.Flights;
+import cds.gen.sap.capire.xflights.Flights_;
+import cds.gen.sap.capire.xflights.Replications;
+import cds.gen.sap.capire.xflights.Supplements;
+import cds.gen.sap.capire.xflights.Supplements_;
+import com.sap.cds.CdsData;
+import com.sap.cds.CdsJsonConverter;
+import com.sap.cds.Result;
+import com.sap.cds.Row;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Insert;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.Update;
+import com.sap.cds.ql.cqn.CqnSelect;
+import com.sap.cds.reflect.CdsEntity;
+import com.sap.cds.services.ServiceException;
+import com.sap.cds.services.persistence.PersistenceService;
+import com.sap.cds.services.runtime.CdsRuntime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Periodically pulls the Flights and Supplements changed in xflights since the last run
+// and updates their replicas in batches. Changes are detected by a watermark element,
+// 'modifiedAt' by default, configurable per entity with
+// xtravels.federation.<entity>.delta-sync.watermark; entities without it are skipped.
+// The highest synchronized value is kept in Replications as JSON, to be read with the
+// element's type, together with a lease, so that only one instance of the app
+// synchronizes an entity at a time. A run stops when its lease was taken over.
+@Component
+class DeltaSync {
+
+  private static final Logger logger = LoggerFactory.getLogger(DeltaSync.class);
+  private static final Map<String, Class<? extends CdsData>> TYPES =
+      Map.of(Flights_.CDS_NAME, Flights.class, Supplements_.CDS_NAME, Supplements.class);
+
+  private final PersistenceService db;
+  private final Data dataService;
+  private final CdsRuntime runtime;
+  private final Environment env;
+  private final boolean enabled;
+  private final int batchSize;
+  private final Duration lease;
+  private final CdsJsonConverter json;
+  private final String owner = UUID.randomUUID().toString();
+
+  DeltaSync(PersistenceService db, Data dataService, CdsRuntime runtime, Environment env) {
+    this.db = db;
+    this.dataService = dataService;
+    this.runtime = runtime;
+    this.env = env;
+    String prefix = "xtravels.federation.delta-sync.";
+    this.enabled = env.getProperty(prefix + "enabled", Boolean.class, true);
+    this.batchSize = env.getProperty(prefix + "batch-size", Integer.class, 1000);
+    this.lease = env.getProperty(prefix + "lease", Duration.class, Duration.ofMinutes(10));
+    this.json = CdsJsonConverter.builder(runtime.getCdsModel()).build();
+  }
+
+  @Scheduled(
+      initialDelayString = "${xtravels.federation.delta-sync.initial-delay:PT1M}",
+      fixedDelayString = "${xtravels.federation.delta-sync.interval:PT5M}")
+  void synchronize() {
+    if (!enabled) return;
+
+    runtime
+        .requestContext()
+        .systemUserProvider()
+        .modifyParameters(p -> p.setLocale(null)) // to replicate localized data correctly
+        .run(
+            requestContext -> {
+              for (String target : List.of(Flights_.CDS_NAME, Supplements_.CDS_NAME)) {
+                try {
+                  synchronize(runtime.getCdsModel().getEntity(target));
+                } catch (RuntimeException e) {
+                  logger.warn("Delta sync of '{}' failed", target, e);
+                }
+              }
+            });
+  }
+
+  private void synchronize(CdsEntity entity) {
+    String target = entity.getQualifiedName();
+    String name = entity.getName().toLowerCase(Locale.ROOT);
+    String watermark =
+        env.getProperty(
+            "xtravels.federation." + name + ".delta-sync.watermark", String.class, "modifiedAt");
+    if (entity.findElement(watermark).isEmpty()) {
+      logger.debug("Skipping delta sync of '{}' without element '{}'", target, watermark);
+      return;
+    }
+    if (!acquireLease(target)) return;
+    try {
+      Object last = lastWatermark(target, watermark);
+      int count = 0;
+      while (last != null) {
+        CqnSelect query =
+            Select.from(target)
+                .where(CQL.get(watermark).gt(last))
+                .orderBy(CQL.get(watermark).asc())
+                .limit(batchSize);
+        Result changed = dataService.run(query);
+        if (changed.rowCount() == 0) break;
+
+        List<Row> rows = new ArrayList<>(changed.list());
+        Object batchWatermark = rows.get(rows.size() - 1).get(watermark);
+        if (changed.rowCount() == batchSize) {
+          // replace the batch's rows at its last watermark by all rows changed at it, so that
+          // none are skipped by the next batch, nor updated twice
+          rows.removeIf(row -> batchWatermark.equals(row.get(watermark)));
+          var sameWatermark = Select.from(target).where(CQL.get(watermark).eq(batchWatermark));
+          rows.addAll(dataService.run(sameWatermark).list());
+        }
+        // only update existing replicas, new ones are replicated when referenced
+        db.run(Update.entity(target).entries(rows));
+        count += rows.size();
+        last = batchWatermark;
+        if (!saveWatermark(target, watermark, last)) {
+          logger.warn("Lease of the delta sync of '{}' was taken over, stopping", target);
+          break;
+        }
+        if (changed.rowCount() < batchSize) break;
+      }
+      if (count > 0) {
+        logger.info("Synchronized {} changes of '{}' up to {}", count, target, last);
+      }
+    } finally {
+      releaseLease(target);
+    }
+  }
+
+  // the stored watermark, or the highest one of existing replicas
+  private Object lastWatermark(String target, String watermark) {
+    var state = db.run(Select.from(REPLICATIONS).byId(target)).single(Replications.class);
+    String stored = state.getWatermark();
+    if (stored != null && stored.startsWith("{")) {
+      return json.fromJsonObject(stored, TYPES.get(target)).get(watermark);
+    }
+
+    var highest = Select.from(target).columns(CQL.get(watermark).max().as("highest"));
+    return db.run(highest).single().get("highest");
+  }
+
+  // stores the watermark and extends the lease, unless another instance took it over
+  private boolean saveWatermark(String target, String watermark, Object value) {
+    Replications state = Replications.create();
+    state.setWatermark(CdsData.create(Map.of(watermark, value)).toJson());
+    state.setLeaseUntil(Instant.now().plus(lease));
+    var save =
+        Update.entity(REPLICATIONS)
+            .data(state)
+            .where(r -> r.name().eq(target).and(r.leaseOwner().eq(owner)));
+    return db.run(save).rowCount() > 0;
+  }
+
+  private boolean acquireLease(String target) {
+    Instant now = Instant.now();
+    Replications state = Replications.create();
+    state.setLeaseOwner(owner);
+    state.setLeaseUntil(now.plus(lease));
+    var acquire =
+        Update.entity(REPLICATIONS)
+            .data(state)
+            .where(
+                r -> r.name().eq(target).and(r.leaseUntil().isNull().or(r.leaseUntil().lt(now))));
+    if (db.run(acquire).rowCount() > 0) return true;
+    if (db.run(Select.from(REPLICATIONS).byId(target)).rowCount() > 0) return false;
+    try {
+      state.setName(target);
+      db.run(Insert.into(REPLICATIONS).entry(state));
+      return true;
+    } catch (ServiceException e) {
+      return false; // created concurrently by another instance
+    }
+  }
+
+  private void releaseLease(String target) {
+    Replications state = Replications.create();
+    state.setLeaseOwner(null);
+    state.setLeaseUntil(null);
+    db.run(
+        Update.entity(REPLICATIONS)
+            .data(state)
+            .where(r -> r.name().eq(target).and(r.leaseOwner().eq(owner))));
+  }
+}
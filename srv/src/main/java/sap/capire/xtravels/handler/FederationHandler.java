@@ -1,8 +1,5 @@
 package sap.capire.xtravels.handler;
 
-import static cds.gen.sap.capire.travels.TravelsModel_.BOOKINGS;
-import static cds.gen.sap.capire.xflights.Xflights_.FLIGHTS;
-import static cds.gen.sap.capire.xflights.Xflights_.SUPPLEMENTS;
 import static com.sap.cds.services.cds.CqnService.EVENT_CREATE;
 import static com.sap.cds.services.cds.CqnService.EVENT_UPDATE;
 import static com.sap.cds.services.cds.CqnService.EVENT_UPSERT;
@@ -10,8 +7,6 @@ import static com.sap.cds.services.draft.DraftService.EVENT_DRAFT_NEW;
 import static com.sap.cds.services.draft.DraftService.EVENT_DRAFT_PATCH;
 
 import cds.gen.sap.capire.flights.data.Data;
-import cds.gen.sap.capire.xflights.Flights;
-import cds.gen.sap.capire.xflights.Supplements;
 import com.sap.cds.CdsData;
 import com.sap.cds.Result;
 import com.sap.cds.impl.DataProcessor;
@@ -23,6 +18,7 @@ import com.sap.cds.ql.cqn.CqnSelect;
 import com.sap.cds.reflect.CdsAssociationType;
 import com.sap.cds.reflect.CdsElement;
 import com.sap.cds.reflect.CdsEntity;
+import com.sap.cds.reflect.CdsModel;
 import com.sap.cds.reflect.CdsStructuredType;
 import com.sap.cds.services.EventContext;
 import com.sap.cds.services.application.ApplicationLifecycleService;
@@ -36,18 +32,15 @@ import com.sap.cds.services.handler.annotations.ServiceName;
 import com.sap.cds.services.persistence.PersistenceService;
 import com.sap.cds.services.runtime.CdsRuntime;
 import com.sap.cds.util.CdsModelUtils;
-import com.sap.cloud.sdk.cloudplatform.resilience.ResilienceConfiguration;
-import com.sap.cloud.sdk.cloudplatform.resilience.ResilienceConfiguration.TimeLimiterConfiguration;
-import com.sap.cloud.sdk.cloudplatform.resilience.ResilienceDecorator;
-import java.time.Duration;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.env.Environment;
@@ -58,78 +51,88 @@ import org.springframework.stereotype.Component;
 class FederationHandler implements EventHandler {
 
   private static final Logger logger = LoggerFactory.getLogger(FederationHandler.class);
-  private static final ResilienceConfiguration config =
-      ResilienceConfiguration.of(FederationHandler.class)
-          .timeLimiterConfiguration(TimeLimiterConfiguration.of(Duration.ofSeconds(10)));
 
   private final PersistenceService db;
   private final Data dataService;
   private final CdsRuntime runtime;
   private final Environment env;
-
-  FederationHandler(PersistenceService db, Data dataService, CdsRuntime runtime, Environment env) {
+  private final ReplicaIndex replicas;
+  private final ValueHelpCache valueHelps;
+  private final InitialLoad initialLoad;
+  private final MeterRegistry registry;
+
+  FederationHandler(
+      PersistenceService db,
+      Data dataService,
+      CdsRuntime runtime,
+      Environment env,
+      ReplicaIndex replicas,
+      ValueHelpCache valueHelps,
+      InitialLoad initialLoad,
+      MeterRegistry registry) {
     this.db = db;
     this.dataService = dataService;
     this.runtime = runtime;
     this.env = env;
+    this.replicas = replicas;
+    this.valueHelps = valueHelps;
+    this.initialLoad = initialLoad;
+    this.registry = registry;
   }
 
   @On(serviceType = ApplicationLifecycleService.class)
   void initialLoad(ApplicationPreparedEventContext context) {
     if (env.getProperty("skip-initial-load", Boolean.class, false)) return;
 
-    // initial load for Flights
-    logger.info("Performing initial load for Flights");
-    var bookingFlights =
-        db.run(
-            Select.from(BOOKINGS)
-                .columns(b -> b.Flight_ID().as(Flights.ID), b -> b.Flight_date().as(Flights.DATE))
-                .distinct());
-    var remoteFlights =
-        dataService.run(
-            Select.from(FLIGHTS).where(CQL.in(List.of(Flights.ID, Flights.DATE), bookingFlights)));
-    db.run(Upsert.into(FLIGHTS).entries(remoteFlights));
-
-    // intial load for Supplements
-    logger.info("Performing initial load for Supplements");
-    var bookingSupplements =
-        db.run(
-            Select.from(BOOKINGS, b -> b.Supplements())
-                .columns(b -> b.booked_ID().as(Supplements.ID))
-                .distinct());
-    var remoteSupplements =
-        dataService.run(
-            Select.from(SUPPLEMENTS).where(CQL.in(List.of(Supplements.ID), bookingSupplements)));
-    db.run(Upsert.into(SUPPLEMENTS).entries(remoteSupplements));
+    CdsModel model = context.getCdsRuntime().getCdsModel();
+    // index the replicas, to avoid checking them on every write
+    Runnable indexReplicas = () -> replicas.rebuild(model);
+    if (env.getProperty("xtravels.federation.initial-load.async", Boolean.class, false)) {
+      initialLoad.start(indexReplicas);
+    } else {
+      initialLoad.run();
+      indexReplicas.run();
+    }
   }
 
   @On
   void readValueHelp(CdsReadEventContext context) {
     CdsEntity target = context.getTarget();
     if (isFederated(target) && isValueHelpRequest(context.getCqn())) {
-      Supplier<Result> remote =
-          () -> {
-            logger.info("Delegating ValueHelp for '{}'", target.getQualifiedName());
-            return dataService.run(context.getCqn());
-          };
       Function<Throwable, Result> replicated =
           (t) -> {
             logger.warn("Serving replicas of '{}'", target.getQualifiedName());
+            registry
+                .counter("xtravels.valuehelp.fallbacks", "entity", target.getQualifiedName())
+                .increment();
             return db.run(context.getCqn());
           };
-      context.setResult(ResilienceDecorator.executeSupplier(remote, config, replicated));
+      context.setResult(valueHelps.get(context, replicated));
     }
   }
 
+  // Collects the keys of all federated instances referenced by the written data first,
+  // so that each target entity is checked and replicated with a single query each.
   @After(event = {EVENT_CREATE, EVENT_UPDATE, EVENT_UPSERT, EVENT_DRAFT_NEW, EVENT_DRAFT_PATCH})
   void replicate(EventContext context, List<CdsData> dataList) {
-    DataProcessor.create()
-        .action(this::replicateAssociations)
-        .process(dataList, context.getTarget());
+    registry
+        .timer("xtravels.replication.checks", "entity", context.getTarget().getQualifiedName())
+        .record(
+            () -> {
+              Map<CdsEntity, Map<List<String>, Map<String, Object>>> references =
+                  new LinkedHashMap<>();
+              DataProcessor.create()
+                  .action((type, data) -> collectReferences(type, data, references))
+                  .process(dataList, context.getTarget());
+              references.forEach(this::replicateMissing);
+            });
   }
 
-  void replicateAssociations(CdsStructuredType type, Map<String, Object> data) {
-    Consumer<CdsElement> replicateTarget =
+  void collectReferences(
+      CdsStructuredType type,
+      Map<String, Object> data,
+      Map<CdsEntity, Map<List<String>, Map<String, Object>>> references) {
+    Consumer<CdsElement> collectTarget =
         element -> {
           CdsAssociationType assoc = element.getType().as(CdsAssociationType.class);
           CdsEntity target = assoc.getTarget();
@@ -144,12 +147,15 @@ class FederationHandler implements EventHandler {
                   .forEach(
                       r -> keyValues.put(r.path(), data.get(element.getName() + "_" + r.path())));
             }
-            if (!keyValues.containsValue(null) && !isReplicated(target, keyValues)) {
-              replicateInstance(target, keyValues);
+            if (!keyValues.containsValue(null)) {
+              references
+                  .computeIfAbsent(target, t -> new LinkedHashMap<>())
+                  .putIfAbsent(
+                      ReplicaIndex.key(ReplicaIndex.keyNames(target), keyValues), keyValues);
             }
           }
         };
-    type.associations().forEach(replicateTarget);
+    type.associations().forEach(collectTarget);
   }
 
   private boolean isFederated(CdsEntity entity) {
@@ -160,25 +166,60 @@ class FederationHandler implements EventHandler {
     return select.ref().segments().size() == 1;
   }
 
-  private boolean isReplicated(CdsEntity entity, Map<String, ?> keys) {
-    var exists = Select.from(entity).columns(CQL.constant(1).as("one")).matching(keys);
-    return db.run(exists).rowCount() > 0;
-  }
+  private void replicateMissing(
+      CdsEntity entity, Map<List<String>, Map<String, Object>> references) {
+    List<String> keyNames = ReplicaIndex.keyNames(entity);
+    Map<List<String>, Map<String, Object>> missing = new LinkedHashMap<>(references);
+    // while the initial load runs in the background, its replicas aren't indexed yet
+    boolean indexed = !initialLoad.isRunning();
+    if (indexed) {
+      missing.keySet().removeIf(key -> replicas.contains(entity, key));
+    }
+    if (!missing.isEmpty() && !(indexed && replicas.isComplete(entity))) {
+      // replicas not fully indexed -> check unknown keys in the database
+      var existing =
+          db.run(
+              Select.from(entity)
+                  .columns(keyNames.toArray(String[]::new))
+                  .where(CQL.in(keyNames, missing.values())));
+      existing.forEach(row -> missing.remove(ReplicaIndex.key(keyNames, row)));
+      replicas.add(entity, existing);
+    }
+    if (missing.isEmpty()) return;
 
-  private void replicateInstance(CdsEntity entity, Map<String, ?> keys) {
-    var select = Select.from(entity).columns(expandCompositions(entity)).matching(keys);
+    var select =
+        Select.from(entity)
+            .columns(expandCompositions(entity))
+            .where(CQL.in(keyNames, missing.values()));
     // read without locale, to replicated localized data correctly
     Result remote =
-        runtime
-            .requestContext()
-            .modifyParameters(p -> p.setLocale(null))
-            .run(
-                requestContext -> {
-                  return dataService.run(select);
-                });
-    if (remote.rowCount() == 1) {
-      logger.info("Replicating '{}' with keys '{}'", entity.getQualifiedName(), keys);
-      db.run(Upsert.into(entity).entry(remote.single()));
+        registry
+            .timer(
+                "xtravels.remote.calls",
+                "entity",
+                entity.getQualifiedName(),
+                "operation",
+                "replicate")
+            .record(
+                () ->
+                    runtime
+                        .requestContext()
+                        .modifyParameters(p -> p.setLocale(null))
+                        .run(
+                            requestContext -> {
+                              return dataService.run(select);
+                            }));
+    if (remote.rowCount() > 0) {
+      registry
+          .counter("xtravels.replication.instances", "entity", entity.getQualifiedName())
+          .increment(remote.rowCount());
+      logger.info(
+          "Replicating {} instances of '{}' with keys '{}'",
+          remote.rowCount(),
+          entity.getQualifiedName(),
+          missing.values());
+      db.run(Upsert.into(entity).entries(remote));
+      replicas.add(entity, remote);
     }
   }
 
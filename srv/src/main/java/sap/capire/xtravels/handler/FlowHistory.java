@@ -0,0 +1,126 @@
+package sap.capire.xtravels.handler;
+
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Delete;
+import com.sap.cds.ql.Select;
+import com.sap.cds.services.changeset.ChangeSetContext;
+import com.sap.cds.services.persistence.PersistenceService;
+import com.sap.cds.services.runtime.CdsRuntime;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Periodically compacts the status transitions written by @flow.status for every Travel.
+// Transitions older than the retention are deleted, except for the newest ones of each
+// Travel, at least two, so $flow.previous still finds the status before the current one.
+// Travels are compacted in batches ordered by ID, each in its own transaction. Each run
+// passes every Travel once, also those of which no transition can be deleted.
+//
+// Reading the latest transitions of a Travel, as $flow.previous does, is served by the index
+// on (up__ID, timestamp), see indexes-h2.sql, independent of the length of its history.
+@Component
+class FlowHistory {
+
+  private static final Logger logger = LoggerFactory.getLogger(FlowHistory.class);
+  private static final String TRANSITIONS = "sap.capire.travels.Travels.transitions_";
+  private static final String TRAVEL = "up__ID";
+  private static final String TIMESTAMP = "timestamp";
+
+  private final PersistenceService db;
+  private final CdsRuntime runtime;
+  private final boolean enabled;
+  private final Duration retention;
+  private final int keep;
+  private final int batchSize;
+  private final Counter compacted;
+
+  FlowHistory(PersistenceService db, CdsRuntime runtime, Environment env, MeterRegistry registry) {
+    this.db = db;
+    this.runtime = runtime;
+    String prefix = "xtravels.flow-history.compaction.";
+    this.enabled = env.getProperty(prefix + "enabled", Boolean.class, true);
+    this.retention = env.getProperty(prefix + "retention", Duration.class, Duration.ofDays(365));
+    this.keep = Math.max(2, env.getProperty(prefix + "keep", Integer.class, 2));
+    this.batchSize = env.getProperty(prefix + "batch-size", Integer.class, 1000);
+    this.compacted = registry.counter("xtravels.flow_history.compacted");
+  }
+
+  @Scheduled(
+      initialDelayString = "${xtravels.flow-history.compaction.initial-delay:PT5M}",
+      fixedDelayString = "${xtravels.flow-history.compaction.interval:PT1H}")
+  void compact() {
+    if (!enabled) return;
+
+    Instant cutoff = Instant.now().minus(retention);
+    runtime
+        .requestContext()
+        .systemUserProvider()
+        .run(
+            requestContext -> {
+              try {
+                long deleted = 0;
+                Integer after = null;
+                List<Integer> batch;
+                do {
+                  batch = travelsToCompact(cutoff, after);
+                  List<Integer> travels = batch;
+                  deleted +=
+                      runtime
+                          .changeSetContext()
+                          .run((ChangeSetContext c) -> compact(travels, cutoff));
+                  if (!batch.isEmpty()) after = batch.get(batch.size() - 1);
+                } while (batch.size() == batchSize);
+                if (deleted > 0) {
+                  logger.info("Compacted {} status transitions older than {}", deleted, cutoff);
+                }
+              } catch (RuntimeException e) {
+                logger.warn("Compacting the status transitions failed", e);
+              }
+            });
+  }
+
+  // Travels after the given one with more than the kept transitions, of which the oldest is
+  // before the cutoff
+  private List<Integer> travelsToCompact(Instant cutoff, Integer after) {
+    var travels =
+        Select.from(TRANSITIONS)
+            .columns(CQL.get(TRAVEL))
+            .groupBy(CQL.get(TRAVEL))
+            .having(CQL.and(CQL.count().gt((long) keep), CQL.get(TIMESTAMP).min().lt(cutoff)))
+            .orderBy(CQL.get(TRAVEL).asc())
+            .limit(batchSize);
+    if (after != null) travels.where(CQL.get(TRAVEL).gt(after));
+    return db.run(travels).stream().map(row -> (Integer) row.get(TRAVEL)).toList();
+  }
+
+  private long compact(List<Integer> travels, Instant cutoff) {
+    long deleted = 0;
+    for (Integer travel : travels) {
+      // the oldest of the transitions kept regardless of their age
+      var kept =
+          Select.from(TRANSITIONS)
+              .columns(CQL.get(TIMESTAMP))
+              .where(CQL.get(TRAVEL).eq(travel))
+              .orderBy(CQL.get(TIMESTAMP).desc())
+              .limit(1, keep - 1);
+      var oldestKept = db.run(kept).first().map(row -> (Instant) row.get(TIMESTAMP));
+      if (oldestKept.isEmpty()) continue;
+
+      Instant before = oldestKept.get().isBefore(cutoff) ? oldestKept.get() : cutoff;
+      deleted +=
+          db.run(
+                  Delete.from(TRANSITIONS)
+                      .where(CQL.and(CQL.get(TRAVEL).eq(travel), CQL.get(TIMESTAMP).lt(before))))
+              .rowCount();
+    }
+    compacted.increment(deleted);
+    return deleted;
+  }
+}
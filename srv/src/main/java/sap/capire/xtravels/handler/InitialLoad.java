@@ -0,0 +1,366 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.sap.capire.travels.TravelsModel_.BOOKINGS;
+import static cds.gen.sap.capire.xflights.Xflights_.REPLICATIONS;
+
+import cds.gen.sap.capire.flights.data.Data;
+import cds.gen.sap.capire.xflights.Flights;
+import cds.gen.sap.capire.xflights.Flights_;
+import cds.gen.sap.capire.xflights.Replications;
+import cds.gen.sap.capire.xflights.Supplements;
+import cds.gen.sap.capire.xflights.Supplements_;
+import com.sap.cds.CdsData;
+import com.sap.cds.CdsJsonConverter;
+import com.sap.cds.Result;
+import com.sap.cds.Row;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.Selectable;
+import com.sap.cds.ql.Update;
+import com.sap.cds.ql.Upsert;
+import com.sap.cds.ql.cqn.CqnPredicate;
+import com.sap.cds.ql.cqn.CqnSortSpecification;
+import com.sap.cds.services.persistence.PersistenceService;
+import com.sap.cds.services.runtime.CdsRuntime;
+import com.sap.cds.services.runtime.RequestContextRunner;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+// Replicates the Flights and Supplements referenced by Bookings from xflights.
+// The distinct keys referenced by Bookings are read in chunks ordered by key, and each
+// chunk is fetched from xflights and upserted on the application's task executor, with a
+// bounded number of chunks in flight.
+// The last key of all completed chunks is stored in Replications as JSON, and read back
+// typed by the target entity, so an interrupted load resumes from there. A completed load
+// is not repeated, unless its replica table is empty, or the load is reset with
+// xtravels.federation.initial-load.reset or DELETE /actuator/replication.
+//
+// When started in the background, the health of this bean, part of the readiness group,
+// stays OUT_OF_SERVICE until the given share of referenced keys has been replicated.
+@Component
+class InitialLoad implements HealthIndicator {
+
+  private static final Logger logger = LoggerFactory.getLogger(InitialLoad.class);
+  private static final List<String> TARGETS = List.of(Flights_.CDS_NAME, Supplements_.CDS_NAME);
+
+  private final PersistenceService db;
+  private final Data dataService;
+  private final CdsRuntime runtime;
+  private final int chunkSize;
+  private final int parallelism;
+  private final double readyThreshold;
+  private final MeterRegistry registry;
+  private final AsyncTaskExecutor executor;
+  private final CdsJsonConverter json;
+  private boolean reset;
+
+  private final Map<String, Progress> progress = new LinkedHashMap<>();
+  private volatile boolean running;
+  private volatile Throwable failure;
+
+  InitialLoad(
+      PersistenceService db,
+      Data dataService,
+      CdsRuntime runtime,
+      Environment env,
+      MeterRegistry registry,
+      @Qualifier("applicationTaskExecutor") AsyncTaskExecutor executor) {
+    this.db = db;
+    this.dataService = dataService;
+    this.runtime = runtime;
+    this.registry = registry;
+    this.executor = executor;
+    String prefix = "xtravels.federation.initial-load.";
+    this.chunkSize = env.getProperty(prefix + "chunk-size", Integer.class, 1000);
+    this.parallelism = env.getProperty(prefix + "parallelism", Integer.class, 4);
+    this.readyThreshold = env.getProperty(prefix + "ready-threshold", Double.class, 1.0);
+    this.json = CdsJsonConverter.builder(runtime.getCdsModel()).build();
+    this.reset = env.getProperty(prefix + "reset", Boolean.class, false);
+    // registered once, reading the progress of the current or last run
+    for (String target : TARGETS) {
+      Gauge.builder("xtravels.initial_load.total", this, l -> l.current(target, Progress::total))
+          .tag("entity", target)
+          .strongReference(true)
+          .register(registry);
+      Gauge.builder(
+              "xtravels.initial_load.completed",
+              this,
+              l -> l.current(target, p -> p.completed().get()))
+          .tag("entity", target)
+          .strongReference(true)
+          .register(registry);
+    }
+  }
+
+  // runs the initial load on the application's task executor, then the given callback.
+  // It waits there for its chunks, which run on the same executor.
+  synchronized void start(Runnable andThen) {
+    if (running) return;
+    running = true;
+    failure = null;
+    Runnable loader =
+        () -> {
+          try {
+            runtime
+                .requestContext()
+                .systemUserProvider()
+                .run(
+                    requestContext -> {
+                      run();
+                    });
+            andThen.run();
+          } catch (RuntimeException e) {
+            failure = e;
+            logger.error("Initial load failed", e);
+          } finally {
+            running = false;
+          }
+        };
+    try {
+      executor.execute(loader);
+    } catch (RuntimeException e) {
+      running = false;
+      throw e;
+    }
+  }
+
+  void run() {
+    if (reset) {
+      reset();
+      reset = false;
+    }
+    List<Load> loads =
+        List.of(
+            new Load(
+                Flights_.CDS_NAME,
+                Flights.class,
+                Select.from(BOOKINGS),
+                List.of("Flight_ID", "Flight_date"),
+                List.of(Flights.ID, Flights.DATE)),
+            new Load(
+                Supplements_.CDS_NAME,
+                Supplements.class,
+                Select.from(BOOKINGS, b -> b.Supplements()),
+                List.of("booked_ID"),
+                List.of(Supplements.ID)));
+    // count all pending keys first, to report progress across all entities
+    loads.forEach(Load::prepare);
+    loads.forEach(Load::run);
+  }
+
+  // forgets the progress of the initial load, so that it runs again completely
+  void reset() {
+    for (String target : TARGETS) {
+      Replications state = Replications.create();
+      state.setLastKey(null);
+      state.setDone(false);
+      db.run(Update.entity(REPLICATIONS).data(state).byId(target));
+    }
+    logger.info("Reset the progress of the initial load");
+  }
+
+  // resets the progress and runs the initial load again in the background, unless running
+  synchronized boolean restart(Runnable andThen) {
+    if (running) return false;
+    reset();
+    start(andThen);
+    return true;
+  }
+
+  boolean isRunning() {
+    return running;
+  }
+
+  Map<String, Progress> progress() {
+    synchronized (progress) {
+      return Map.copyOf(progress);
+    }
+  }
+
+  @Override
+  public Health health() {
+    Map<String, Progress> current = progress();
+    long total = current.values().stream().mapToLong(Progress::total).sum();
+    long completed = current.values().stream().mapToLong(p -> p.completed().get()).sum();
+    var health =
+        failure != null
+            ? Health.down().withException(failure)
+            : !running || completed >= total * readyThreshold ? Health.up() : Health.outOfService();
+    return health.withDetail("running", running).withDetails(current).build();
+  }
+
+  private double current(String target, ToLongFunction<Progress> value) {
+    Progress current;
+    synchronized (progress) {
+      current = progress.get(target);
+    }
+    return current == null ? 0 : value.applyAsLong(current);
+  }
+
+  record Progress(long total, AtomicLong completed) {}
+
+  // replicates the target entity's instances, whose keys are referenced by the source elements
+  private class Load {
+
+    final String target;
+    final Class<? extends CdsData> keyType;
+    final List<String> elements;
+    final List<String> keys;
+    final CqnPredicate referenced;
+    final Select<?> distinctKeys;
+    final Select<?> keyQuery;
+    Replications state;
+    AtomicLong completed;
+
+    Load(
+        String target,
+        Class<? extends CdsData> keyType,
+        Select<?> source,
+        List<String> elements,
+        List<String> keys) {
+      this.target = target;
+      this.keyType = keyType;
+      this.elements = elements;
+      this.keys = keys;
+      List<Selectable> columns = new ArrayList<>();
+      List<CqnPredicate> notNull = new ArrayList<>();
+      List<CqnSortSpecification> order = new ArrayList<>();
+      for (int i = 0; i < elements.size(); i++) {
+        columns.add(CQL.get(elements.get(i)).as(keys.get(i)));
+        notNull.add(CQL.get(elements.get(i)).isNotNull());
+        order.add(CQL.get(elements.get(i)).asc());
+      }
+      this.referenced = CQL.and(notNull);
+      this.distinctKeys = source.columns(columns).where(referenced).distinct();
+      this.keyQuery = Select.copy(distinctKeys).orderBy(order).limit(chunkSize);
+    }
+
+    void prepare() {
+      state = state(target);
+      if (Boolean.TRUE.equals(state.getDone())
+          && db.run(Select.from(target).limit(1)).rowCount() == 0) {
+        logger.info("Replicas of {} are empty, repeating the initial load", target);
+        state.setDone(false);
+        state.setLastKey(null);
+      }
+      long total = 0;
+      if (!Boolean.TRUE.equals(state.getDone())) {
+        Select<?> pending = Select.copy(distinctKeys).where(pending(lastKey(state)));
+        var count = Select.from(pending).columns(CQL.count().as("count"));
+        total = ((Number) db.run(count).single().get("count")).longValue();
+      }
+      completed = new AtomicLong();
+      Progress current = new Progress(total, completed);
+      synchronized (progress) {
+        progress.put(target, current);
+      }
+    }
+
+    void run() {
+      if (Boolean.TRUE.equals(state.getDone())) {
+        logger.info("Initial load for {} already completed", target);
+        return;
+      }
+      logger.info("Performing initial load for {}", target);
+      Deque<CompletableFuture<Map<String, Object>>> inFlight = new ArrayDeque<>();
+      Map<String, Object> lastKey = lastKey(state);
+      int chunks = 0;
+      while (true) {
+        Result bookingKeys = db.run(Select.copy(keyQuery).where(pending(lastKey)));
+        if (bookingKeys.rowCount() == 0) break;
+
+        Row last = bookingKeys.list().get(bookingKeys.list().size() - 1);
+        lastKey = new LinkedHashMap<>();
+        for (String key : keys) {
+          lastKey.put(key, last.get(key));
+        }
+        Map<String, Object> chunkKey = lastKey;
+        // created on this thread, to propagate its RequestContext to the executor's thread
+        RequestContextRunner context = runtime.requestContext().systemUserProvider();
+        inFlight.add(
+            CompletableFuture.supplyAsync(
+                () -> replicate(context, bookingKeys, chunkKey), executor));
+        chunks++;
+        if (inFlight.size() >= parallelism) {
+          saveProgress(inFlight.poll().join(), false);
+        }
+        if (bookingKeys.rowCount() < chunkSize) break;
+      }
+      while (!inFlight.isEmpty()) {
+        saveProgress(inFlight.poll().join(), false);
+      }
+      saveProgress(lastKey, true);
+      logger.info("Completed initial load for {} in {} chunks", target, chunks);
+    }
+
+    private Map<String, Object> replicate(
+        RequestContextRunner context, Result bookingKeys, Map<String, Object> chunkKey) {
+      return context.run(
+          requestContext -> {
+            Result remote = dataService.run(Select.from(target).where(CQL.in(keys, bookingKeys)));
+            db.run(Upsert.into(target).entries(remote));
+            completed.addAndGet(bookingKeys.rowCount());
+            logger.debug("Replicated {} {} up to '{}'", remote.rowCount(), target, chunkKey);
+            return chunkKey;
+          });
+    }
+
+    // keyset condition: (e1 > v1) or (e1 = v1 and e2 > v2) or ...
+    private CqnPredicate pending(Map<String, Object> lastKey) {
+      if (lastKey == null) return referenced;
+
+      List<CqnPredicate> alternatives = new ArrayList<>();
+      for (int i = 0; i < elements.size(); i++) {
+        List<CqnPredicate> conditions = new ArrayList<>();
+        for (int j = 0; j < i; j++) {
+          conditions.add(CQL.get(elements.get(j)).eq(lastKey.get(keys.get(j))));
+        }
+        conditions.add(CQL.get(elements.get(i)).gt(lastKey.get(keys.get(i))));
+        alternatives.add(CQL.and(conditions));
+      }
+      return CQL.and(referenced, CQL.or(alternatives));
+    }
+
+    // the key values typed by the target entity, e.g. Integer or LocalDate
+    private Map<String, Object> lastKey(Replications state) {
+      String lastKey = state.getLastKey();
+      if (lastKey == null || !lastKey.startsWith("{")) return null;
+      return json.fromJsonObject(lastKey, keyType);
+    }
+
+    private void saveProgress(Map<String, Object> lastKey, boolean done) {
+      Replications state = Replications.create();
+      state.setName(target);
+      state.setLastKey(lastKey == null ? null : CdsData.create(lastKey).toJson());
+      state.setDone(done);
+      db.run(Upsert.into(REPLICATIONS).entry(state));
+    }
+  }
+
+  private Replications state(String target) {
+    var state = db.run(Select.from(REPLICATIONS).byId(target)).first();
+    return state.orElseGet(
+        () -> {
+          Replications initial = Replications.create();
+          initial.setName(target);
+          return initial;
+        });
+  }
+}
@@ -0,0 +1,171 @@
+package sap.capire.xtravels.handler;
+
+import static com.sap.cds.ql.cqn.CqnSortSpecification.Order.ASC;
+import static com.sap.cds.ql.cqn.CqnSortSpecification.Order.DESC;
+
+import cds.gen.travelservice.TravelService_;
+import cds.gen.travelservice.Travels;
+import cds.gen.travelservice.Travels_;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sap.cds.ResultBuilder;
+import com.sap.cds.Row;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.cqn.CqnPredicate;
+import com.sap.cds.ql.cqn.CqnSelect;
+import com.sap.cds.ql.cqn.CqnSortSpecification;
+import com.sap.cds.ql.cqn.CqnValue;
+import com.sap.cds.services.cds.CdsReadEventContext;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.After;
+import com.sap.cds.services.handler.annotations.Before;
+import com.sap.cds.services.handler.annotations.ServiceName;
+import java.time.Duration;
+import java.util.List;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+// Reads the pages of Travels, which the list report requests with $skip and $top ordered
+// by ID, by seeking past the last Travel of the previous page on the primary key, instead
+// of skipping all Travels before it. So deep pages are as fast as the first one.
+//
+// The last Travel of each page read is remembered per user and query, without $skip and
+// $top. Drafts and active Travels with the same ID are ordered by IsActiveEntity, so the
+// seek doesn't miss either of them. Pages requested without reading the previous one, or
+// after the boundary expired, are read with $skip as before.
+//
+// The $count of the first page is passed on with the boundaries to the seeked pages, which
+// otherwise need a separate count. So it doesn't include Travels created or deleted while
+// paging, until the list report reads the first page again, e.g. when it's refreshed.
+@Component
+@ServiceName(TravelService_.CDS_NAME)
+class KeysetPagingHandler implements EventHandler {
+
+  private static final String PAGE = KeysetPagingHandler.class.getName() + ".page";
+
+  private final Cache<PageKey, Boundary> boundaries;
+
+  KeysetPagingHandler(Environment env) {
+    this.boundaries =
+        Caffeine.newBuilder()
+            .maximumSize(env.getProperty("xtravels.keyset-paging.max-size", Long.class, 10000L))
+            .expireAfterWrite(
+                env.getProperty(
+                    "xtravels.keyset-paging.ttl", Duration.class, Duration.ofMinutes(5)))
+            .build();
+  }
+
+  @Before(entity = Travels_.CDS_NAME)
+  void seek(CdsReadEventContext context) {
+    CqnSelect select = context.getCqn();
+    Order order = Order.of(select);
+    if (order == null) return;
+
+    String shape =
+        context.getUserInfo().getTenant()
+            + "/"
+            + context.getUserInfo().getName()
+            + "/"
+            + Select.copy(select).limit(1, 0).toJson();
+    Boundary boundary =
+        select.skip() > 0 ? boundaries.getIfPresent(new PageKey(shape, select.skip())) : null;
+    context.put(
+        PAGE,
+        boundary != null
+            ? new Page(shape, select.skip(), select.top(), select, boundary.count())
+            : new Page(shape, select.skip(), select.top(), null, null));
+
+    var paged = Select.copy(select).orderBy(order.sort());
+    if (boundary != null) {
+      CqnPredicate after = boundary.after(order);
+      paged.where(select.where().map(w -> (CqnPredicate) CQL.and(w, after)).orElse(after));
+      paged.limit(select.top(), 0);
+    }
+    context.setCqn(paged);
+  }
+
+  @After(entity = Travels_.CDS_NAME)
+  void remember(CdsReadEventContext context) {
+    if (!(context.get(PAGE) instanceof Page page)) return;
+
+    List<Row> rows = context.getResult().list();
+    Long count = page.count();
+    if (page.seeked() == null) {
+      count = context.getCqn().hasInlineCount() ? context.getResult().inlineCount() : null;
+    } else if (page.seeked().hasInlineCount()) {
+      // the count of the seek would only include the Travels after the boundary
+      if (count == null) count = count(context, page.seeked());
+      context.setResult(ResultBuilder.selectedRows(rows).inlineCount(count).result());
+    }
+    if (rows.size() == page.top()) {
+      Row last = rows.get(rows.size() - 1);
+      if (last.get(Travels.ID) instanceof Integer id
+          && last.get(Travels.IS_ACTIVE_ENTITY) instanceof Boolean active) {
+        boundaries.put(
+            new PageKey(page.shape(), page.skip() + page.top()), new Boundary(id, active, count));
+      }
+    }
+  }
+
+  private long count(CdsReadEventContext context, CqnSelect select) {
+    var count = Select.from(select.ref()).columns(CQL.get(Travels.ID)).inlineCount().limit(1);
+    select.where().ifPresent(count::where);
+    select.search().ifPresent(count::search);
+    return context.getService().run(count).inlineCount();
+  }
+
+  private record PageKey(String shape, long skip) {}
+
+  // seeked: the original statement, if the page is read with a seek, and the count of its query
+  private record Page(String shape, long skip, long top, CqnSelect seeked, Long count) {}
+
+  // the sort of a page of Travels: by ID, and by IsActiveEntity for a draft and its active
+  private record Order(boolean descending, boolean activeDescending) {
+
+    static Order of(CqnSelect select) {
+      if (select.top() <= 0
+          || select.isDistinct()
+          || !select.groupBy().isEmpty()
+          || !select.transformations().isEmpty()) return null;
+
+      List<CqnSortSpecification> orderBy = select.orderBy();
+      if (orderBy.isEmpty() || orderBy.size() > 2 || !isRef(orderBy.get(0), Travels.ID))
+        return null;
+      boolean descending = isDescending(orderBy.get(0));
+      if (orderBy.size() == 1) return new Order(descending, descending);
+      if (!isRef(orderBy.get(1), Travels.IS_ACTIVE_ENTITY)) return null;
+      return new Order(descending, isDescending(orderBy.get(1)));
+    }
+
+    List<CqnSortSpecification> sort() {
+      return List.of(
+          CQL.sort(CQL.get(Travels.ID), descending ? DESC : ASC),
+          CQL.sort(CQL.get(Travels.IS_ACTIVE_ENTITY), activeDescending ? DESC : ASC));
+    }
+
+    private static boolean isRef(CqnSortSpecification sort, String element) {
+      CqnValue value = sort.value();
+      return value.isRef() && value.asRef().size() == 1 && value.asRef().path().equals(element);
+    }
+
+    private static boolean isDescending(CqnSortSpecification sort) {
+      return "desc".equals(sort.order().sort);
+    }
+  }
+
+  // the last Travel of a page, and the count of its query, if known
+  private record Boundary(int id, boolean active, Long count) {
+
+    CqnPredicate after(Order order) {
+      var id = CQL.get(Travels.ID);
+      CqnPredicate beyond = order.descending() ? id.lt(this.id) : id.gt(this.id);
+      // the other one of a draft and its active Travel, if it's sorted after this one
+      if (active == order.activeDescending()) {
+        return CQL.or(
+            beyond, CQL.and(id.eq(this.id), CQL.get(Travels.IS_ACTIVE_ENTITY).eq(!active)));
+      }
+      return beyond;
+    }
+  }
+}
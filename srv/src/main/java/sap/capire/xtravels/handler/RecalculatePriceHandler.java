@@ -1,6 +1,10 @@
 package sap.capire.xtravels.handler;
 
+import static cds.gen.travelservice.TravelService_.BOOKINGS;
 import static cds.gen.travelservice.TravelService_.TRAVELS;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toList;
 
 import cds.gen.travelservice.Bookings;
 import cds.gen.travelservice.Bookings_;
@@ -13,37 +17,62 @@ import com.sap.cds.ql.CQL;
 import com.sap.cds.ql.Select;
 import com.sap.cds.ql.Update;
 import com.sap.cds.ql.Value;
-import com.sap.cds.ql.cqn.CqnSelectListValue;
+import com.sap.cds.ql.cqn.CqnAnalyzer;
 import com.sap.cds.ql.cqn.CqnStructuredTypeRef;
-import com.sap.cds.ql.cqn.CqnValue;
+import com.sap.cds.reflect.CdsEntity;
 import com.sap.cds.services.EventContext;
 import com.sap.cds.services.cds.CqnService;
+import com.sap.cds.services.changeset.ChangeSetContext;
+import com.sap.cds.services.changeset.ChangeSetListener;
 import com.sap.cds.services.draft.DraftService;
 import com.sap.cds.services.handler.EventHandler;
 import com.sap.cds.services.handler.annotations.After;
+import com.sap.cds.services.handler.annotations.Before;
 import com.sap.cds.services.handler.annotations.ServiceName;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.math.BigDecimal;
-import java.util.function.Function;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.springframework.stereotype.Component;
 
 // Update a Travel's TotalPrice whenever its BookingFee is modified,
 // or when a nested Booking is deleted or its FlightPrice is modified,
 // or when a nested Supplement is deleted or its Price is modified.
 // -> should be automated by Calculated Elements + auto-GROUP BY
+//
+// Patches and deletions, as sent by the Fiori UI while editing drafts, only add the
+// difference to the previous amount to TotalPrice. Creates and updates, e.g. when
+// drafts are activated, re-aggregate the full TotalPrice.
+// Both are collected per Travel and applied once at the end of the change set, so
+// $batch requests and deep updates touching many Bookings recalculate each Travel once.
+// Writes of a Travel itself apply its pending total right away, as their response
+// carries the TotalPrice.
 @Component
 @ServiceName(TravelService_.CDS_NAME)
 class RecalculatePriceHandler implements EventHandler {
 
+  private static final String PREVIOUS_AMOUNT = "previousAmount";
+
   private final TravelService service;
+  private final Map<ChangeSetContext, PendingTotals> pending = new ConcurrentHashMap<>();
+  private final Timer recalculations;
+  private final Timer increments;
 
-  RecalculatePriceHandler(TravelService service) {
+  RecalculatePriceHandler(TravelService service, MeterRegistry registry) {
     this.service = service;
+    this.recalculations = registry.timer("xtravels.totals", "mode", "recalculate");
+    this.increments = registry.timer("xtravels.totals", "mode", "increment");
   }
 
   @After(
       entity = {Travels_.CDS_NAME, Bookings_.CDS_NAME, Bookings_.Supplements_.CDS_NAME},
-      event = {CqnService.EVENT_CREATE, CqnService.EVENT_UPDATE, DraftService.EVENT_DRAFT_PATCH})
-  void updateTotalsOnPatch(CqnStructuredTypeRef ref, CdsData data, EventContext context) {
+      event = {CqnService.EVENT_CREATE, CqnService.EVENT_UPDATE})
+  void updateTotalsOnWrite(CqnStructuredTypeRef ref, CdsData data, EventContext context) {
     if (!(data.containsKey(Travels.BOOKING_FEE)
         || data.containsKey(Bookings.FLIGHT_PRICE)
         || data.containsKey(Bookings.Supplements.PRICE))) return;
@@ -52,32 +81,203 @@ class RecalculatePriceHandler implements EventHandler {
         && context.getTarget().getQualifiedName().equals(Travels_.CDS_NAME)) {
       ref = Travels.of(data).ref().asRef();
     }
-    updateTotals(ref);
+    TravelKey travel = travelKey(ref, context);
+    pendingTotals(context).recalculate(travel);
+    respondWithTotal(travel, data, context);
+  }
+
+  @Before(
+      entity = {Travels_.CDS_NAME, Bookings_.CDS_NAME, Bookings_.Supplements_.CDS_NAME},
+      event = DraftService.EVENT_DRAFT_PATCH)
+  void rememberPriceOnPatch(CqnStructuredTypeRef ref, CdsData data, EventContext context) {
+    String price = priceElement(context.getTarget());
+    if (data.containsKey(price)) {
+      var previous = service.run(Select.from(ref).columns(CQL.get(price).as(price)));
+      context.put(PREVIOUS_AMOUNT, amount(previous.single().get(price)));
+    }
   }
 
   @After(
+      entity = {Travels_.CDS_NAME, Bookings_.CDS_NAME, Bookings_.Supplements_.CDS_NAME},
+      event = DraftService.EVENT_DRAFT_PATCH)
+  void updateTotalsOnPatch(CqnStructuredTypeRef ref, CdsData data, EventContext context) {
+    if (context.get(PREVIOUS_AMOUNT) instanceof BigDecimal previous) {
+      BigDecimal current = amount(data.get(priceElement(context.getTarget())));
+      TravelKey travel = travelKey(ref, context);
+      pendingTotals(context).add(travel, current.subtract(previous));
+      respondWithTotal(travel, data, context);
+    }
+  }
+
+  @Before(
       entity = {Bookings_.CDS_NAME, Bookings_.Supplements_.CDS_NAME},
       event = {CqnService.EVENT_DELETE, DraftService.EVENT_DRAFT_CANCEL})
-  void updateTotalsOnDelete(CqnStructuredTypeRef ref) {
-    updateTotals(ref);
+  void rememberPriceOnDelete(CqnStructuredTypeRef ref, EventContext context) {
+    BigDecimal previous = BigDecimal.ZERO;
+    if (context.getTarget().getQualifiedName().equals(Bookings_.CDS_NAME)) {
+      var bookings = CQL.entity(BOOKINGS, ref);
+      var costs = Select.from(bookings).columns(b -> bookingCost(b).as(Bookings.FLIGHT_PRICE));
+      for (var booking : service.run(costs)) {
+        previous = previous.add(amount(booking.get(Bookings.FLIGHT_PRICE)));
+      }
+    } else {
+      String price = Bookings.Supplements.PRICE;
+      for (var supplement : service.run(Select.from(ref).columns(CQL.get(price).as(price)))) {
+        previous = previous.add(amount(supplement.get(price)));
+      }
+    }
+    context.put(PREVIOUS_AMOUNT, previous);
   }
 
-  private void updateTotals(CqnStructuredTypeRef ref) {
-    var travel = CQL.entity(TRAVELS, CQL.to(ref.rootSegment()));
+  @After(
+      entity = {Bookings_.CDS_NAME, Bookings_.Supplements_.CDS_NAME},
+      event = {CqnService.EVENT_DELETE, DraftService.EVENT_DRAFT_CANCEL})
+  void updateTotalsOnDelete(CqnStructuredTypeRef ref, EventContext context) {
+    if (context.get(PREVIOUS_AMOUNT) instanceof BigDecimal previous) {
+      pendingTotals(context).add(travelKey(ref, context), previous.negate());
+    }
+  }
 
-    Function<Bookings_, CqnValue> bookingCost =
-        b -> orZero(b.FlightPrice()).plus(orZero(b.Supplements().sum(s -> s.Price())));
-    Function<Travels_, CqnSelectListValue> travelCost =
-        t -> t.BookingFee().plus(orZero(t.Bookings().sum(bookingCost))).as(Travels.TOTAL_PRICE);
+  // applies the totals pending in the change set now, e.g. to read them before it completes
+  void flush(ChangeSetContext changeSet) {
+    PendingTotals totals = pending.get(changeSet);
+    if (totals != null) {
+      totals.beforeClose();
+    }
+  }
 
-    var aggregation = Select.from(travel).columns(travelCost);
-    BigDecimal totalPrice = service.run(aggregation).single().getTotalPrice();
+  private void respondWithTotal(TravelKey travel, CdsData data, EventContext context) {
+    if (travel.id() != null && context.getTarget().getQualifiedName().equals(Travels_.CDS_NAME)) {
+      data.put(Travels.TOTAL_PRICE, pendingTotals(context).apply(travel));
+    }
+  }
+
+  private PendingTotals pendingTotals(EventContext context) {
+    return pending.computeIfAbsent(
+        context.getChangeSetContext(),
+        changeSet -> {
+          PendingTotals totals = new PendingTotals(changeSet);
+          changeSet.register(totals);
+          return totals;
+        });
+  }
+
+  private static TravelKey travelKey(CqnStructuredTypeRef ref, EventContext context) {
+    Map<String, Object> keys = CqnAnalyzer.create(context.getModel()).analyze(ref).rootKeys();
+    return new TravelKey(
+        (Integer) keys.get(Travels.ID), !Boolean.FALSE.equals(keys.get(Travels.IS_ACTIVE_ENTITY)));
+  }
+
+  private static Value<Number> bookingCost(Bookings_ b) {
+    return orZero(b.FlightPrice()).plus(orZero(b.Supplements().sum(s -> s.Price())));
+  }
 
-    service.run(
-        Update.entity(travel).data(Travels.TOTAL_PRICE, totalPrice).hint("@readonly", false));
+  private static String priceElement(CdsEntity entity) {
+    return switch (entity.getQualifiedName()) {
+      case Travels_.CDS_NAME -> Travels.BOOKING_FEE;
+      case Bookings_.CDS_NAME -> Bookings.FLIGHT_PRICE;
+      default -> Bookings.Supplements.PRICE;
+    };
   }
 
-  private Value<Number> orZero(Value<? extends Number> value) {
+  private static BigDecimal amount(Object value) {
+    return value == null ? BigDecimal.ZERO : new BigDecimal(value.toString());
+  }
+
+  private static Value<Number> orZero(Value<? extends Number> value) {
     return CQL.func("coalesce", value, CQL.constant(0));
   }
+
+  private record TravelKey(Integer id, boolean active) {
+
+    Travels_ ref() {
+      return CQL.entity(TRAVELS).filter(t -> t.ID().eq(id).and(t.IsActiveEntity().eq(active)));
+    }
+  }
+
+  // Recalculations requested within one change set, applied right before it completes
+  private class PendingTotals implements ChangeSetListener {
+
+    private final ChangeSetContext changeSet;
+    private final Set<TravelKey> recalculations = new HashSet<>();
+    private final Map<TravelKey, BigDecimal> deltas = new LinkedHashMap<>();
+
+    PendingTotals(ChangeSetContext changeSet) {
+      this.changeSet = changeSet;
+    }
+
+    synchronized void recalculate(TravelKey travel) {
+      recalculations.add(travel);
+    }
+
+    synchronized void add(TravelKey travel, BigDecimal delta) {
+      deltas.merge(travel, delta, BigDecimal::add);
+    }
+
+    // applies what is pending for one Travel right away and returns its TotalPrice
+    synchronized BigDecimal apply(TravelKey travel) {
+      BigDecimal delta = deltas.remove(travel);
+      if (recalculations.remove(travel)) {
+        RecalculatePriceHandler.this.recalculations.record(
+            () -> recalculateAll(travel.active(), List.of(travel.id())));
+      } else if (delta != null && delta.signum() != 0) {
+        increments.record(() -> increment(travel, delta));
+      }
+      var total = Select.from(travel.ref()).columns(t -> t.TotalPrice());
+      return service.run(total).single(Travels.class).getTotalPrice();
+    }
+
+    @Override
+    public synchronized void beforeClose() {
+      // re-aggregate with one grouped query for all drafts and one for all active Travels
+      if (!recalculations.isEmpty()) {
+        RecalculatePriceHandler.this.recalculations.record(
+            () ->
+                recalculations.stream()
+                    .collect(groupingBy(TravelKey::active, mapping(TravelKey::id, toList())))
+                    .forEach(this::recalculateAll));
+      }
+
+      // add up differences, unless the Travel got re-aggregated anyway
+      deltas.forEach(
+          (travel, delta) -> {
+            if (delta.signum() != 0 && !recalculations.contains(travel)) {
+              increments.record(() -> increment(travel, delta));
+            }
+          });
+      recalculations.clear();
+      deltas.clear();
+    }
+
+    @Override
+    public void afterClose(boolean completed) {
+      pending.remove(changeSet);
+    }
+
+    private void increment(TravelKey travel, BigDecimal delta) {
+      service.run(
+          Update.entity(travel.ref())
+              .set(Travels.TOTAL_PRICE, orZero(CQL.get(Travels.TOTAL_PRICE)).plus(delta))
+              .hint("@readonly", false));
+    }
+
+    private void recalculateAll(boolean active, List<Integer> ids) {
+      var aggregation =
+          Select.from(TRAVELS)
+              .columns(
+                  t -> t.ID(),
+                  t ->
+                      t.BookingFee()
+                          .plus(orZero(t.Bookings().sum(RecalculatePriceHandler::bookingCost)))
+                          .as(Travels.TOTAL_PRICE))
+              .where(t -> t.ID().in(ids).and(t.IsActiveEntity().eq(active)));
+      for (Travels totals : service.run(aggregation)) {
+        var travel = new TravelKey(totals.getId(), active);
+        service.run(
+            Update.entity(travel.ref())
+                .data(Travels.TOTAL_PRICE, totals.getTotalPrice())
+                .hint("@readonly", false));
+      }
+    }
+  }
 }
@@ -0,0 +1,152 @@
+package sap.capire.xtravels.handler;
+
+import com.sap.cds.ql.Select;
+import com.sap.cds.reflect.CdsEntity;
+import com.sap.cds.reflect.CdsModel;
+import com.sap.cds.services.changeset.ChangeSetContext;
+import com.sap.cds.services.changeset.ChangeSetListener;
+import com.sap.cds.services.persistence.PersistenceService;
+import com.sap.cds.util.CdsModelUtils;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+// Remembers the keys of replicated instances of @federated entities, so that writes
+// referencing them don't need to query the database. Replicas are never removed, so
+// a known key stays valid. The index of an entity is loaded from its replica table on
+// first use, and again once the initial load completed. It is bounded: once full, unknown keys are
+// checked in the database again.
+// An exact set is used instead of a Bloom filter, as a false positive would silently
+// skip the replication of a missing instance. Replicating an instance again, e.g. one
+// written by another instance of the app, is harmless, as replicas are upserted.
+// Keys added within a change set are only indexed once it completes, so replicas
+// rolled back with a failed write don't remain in the index.
+@Component
+class ReplicaIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReplicaIndex.class);
+
+  private final PersistenceService db;
+  private final int maxSize;
+  private final Map<String, Index> indexes = new ConcurrentHashMap<>();
+  private final Map<ChangeSetContext, PendingKeys> pending = new ConcurrentHashMap<>();
+
+  ReplicaIndex(PersistenceService db, Environment env) {
+    this.db = db;
+    this.maxSize =
+        env.getProperty("xtravels.federation.replica-index.max-size", Integer.class, 100_000);
+  }
+
+  // loads the indexes of all federated entities anew, e.g. once the initial load completed
+  void rebuild(CdsModel model) {
+    model
+        .entities()
+        .filter(entity -> entity.getAnnotationValue("@federated", false))
+        .forEach(entity -> indexes.put(entity.getQualifiedName(), load(entity)));
+  }
+
+  boolean contains(CdsEntity entity, List<String> key) {
+    return index(entity).keys.contains(key);
+  }
+
+  // true, if all replicas of the entity are known, so unknown keys are definitely missing
+  boolean isComplete(CdsEntity entity) {
+    return index(entity).complete;
+  }
+
+  void add(CdsEntity entity, Iterable<? extends Map<String, ?>> rows) {
+    List<String> keyNames = keyNames(entity);
+    List<List<String>> keys = new ArrayList<>();
+    rows.forEach(row -> keys.add(key(keyNames, row)));
+    if (ChangeSetContext.isActive()) {
+      pendingKeys(ChangeSetContext.getCurrent()).add(entity, keys);
+    } else {
+      addKeys(entity, keys);
+    }
+  }
+
+  private void addKeys(CdsEntity entity, List<List<String>> keys) {
+    Index index = indexes.get(entity.getQualifiedName());
+    if (index == null) return; // the keys are committed, so loading the index includes them
+    for (List<String> key : keys) {
+      if (index.keys.size() < maxSize) {
+        index.keys.add(key);
+      } else {
+        index.complete = false;
+      }
+    }
+  }
+
+  private PendingKeys pendingKeys(ChangeSetContext changeSet) {
+    return pending.computeIfAbsent(
+        changeSet,
+        c -> {
+          PendingKeys keys = new PendingKeys(c);
+          c.register(keys);
+          return keys;
+        });
+  }
+
+  static List<String> keyNames(CdsEntity entity) {
+    return List.copyOf(CdsModelUtils.keyNames(entity));
+  }
+
+  // key values as strings, so that e.g. dates given as String and LocalDate match
+  static List<String> key(List<String> keyNames, Map<String, ?> data) {
+    return keyNames.stream().map(k -> String.valueOf(data.get(k))).toList();
+  }
+
+  private Index index(CdsEntity entity) {
+    return indexes.computeIfAbsent(entity.getQualifiedName(), n -> load(entity));
+  }
+
+  private Index load(CdsEntity entity) {
+    List<String> keyNames = keyNames(entity);
+    var replicas =
+        db.run(Select.from(entity).columns(keyNames.toArray(String[]::new)).limit(maxSize + 1));
+    Index index = new Index(replicas.rowCount() <= maxSize);
+    replicas.stream().limit(maxSize).forEach(row -> index.keys.add(key(keyNames, row)));
+    logger.info("Indexed {} replicas of '{}'", index.keys.size(), entity.getQualifiedName());
+    return index;
+  }
+
+  // Keys of the replicas written within one change set, indexed when it completes
+  private class PendingKeys implements ChangeSetListener {
+
+    private final ChangeSetContext changeSet;
+    private final Map<CdsEntity, List<List<String>>> keys = new LinkedHashMap<>();
+
+    PendingKeys(ChangeSetContext changeSet) {
+      this.changeSet = changeSet;
+    }
+
+    synchronized void add(CdsEntity entity, List<List<String>> entityKeys) {
+      keys.computeIfAbsent(entity, e -> new ArrayList<>()).addAll(entityKeys);
+    }
+
+    @Override
+    public synchronized void afterClose(boolean completed) {
+      pending.remove(changeSet);
+      if (completed) {
+        keys.forEach(ReplicaIndex.this::addKeys);
+      }
+    }
+  }
+
+  private static class Index {
+
+    final Set<List<String>> keys = ConcurrentHashMap.newKeySet();
+    volatile boolean complete;
+
+    Index(boolean complete) {
+      this.complete = complete;
+    }
+  }
+}
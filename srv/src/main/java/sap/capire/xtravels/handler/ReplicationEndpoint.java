@@ -0,0 +1,54 @@
+package sap.capire.xtravels.handler;
+
+import com.sap.cds.services.request.RequestContext;
+import com.sap.cds.services.runtime.CdsRuntime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+// Reports the progress of the initial load at /actuator/replication,
+// DELETE resets it and runs the initial load again in the background, for admins only
+@Component
+@Endpoint(id = "replication")
+class ReplicationEndpoint {
+
+  private final InitialLoad initialLoad;
+  private final ReplicaIndex replicas;
+  private final CdsRuntime runtime;
+
+  ReplicationEndpoint(InitialLoad initialLoad, ReplicaIndex replicas, CdsRuntime runtime) {
+    this.initialLoad = initialLoad;
+    this.replicas = replicas;
+    this.runtime = runtime;
+  }
+
+  @ReadOperation
+  public Map<String, Object> progress() {
+    Map<String, Object> progress = new LinkedHashMap<>();
+    initialLoad
+        .progress()
+        .forEach(
+            (entity, p) ->
+                progress.put(entity, Map.of("total", p.total(), "completed", p.completed().get())));
+    return progress;
+  }
+
+  @DeleteOperation
+  public WebEndpointResponse<Map<String, Object>> reset() {
+    // the user authenticated for the actuator request, as for the services, with its roles
+    boolean admin =
+        runtime
+            .requestContext()
+            .run((RequestContext requestContext) -> requestContext.getUserInfo().hasRole("admin"));
+    if (!admin) {
+      return new WebEndpointResponse<>(HttpStatus.FORBIDDEN.value());
+    }
+    boolean restarted = initialLoad.restart(() -> replicas.rebuild(runtime.getCdsModel()));
+    return new WebEndpointResponse<>(Map.of("restarted", restarted));
+  }
+}
@@ -0,0 +1,40 @@
+package sap.capire.xtravels.handler;
+
+import com.sap.cloud.sdk.cloudplatform.thread.DefaultThreadContextExecutorService;
+import com.sap.cloud.sdk.cloudplatform.thread.ThreadContextExecutorService;
+import com.sap.cloud.sdk.cloudplatform.thread.ThreadContextExecutors;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.ExecutorServiceAdapter;
+import org.springframework.stereotype.Component;
+
+// With virtual threads enabled, also runs the time-limited ResilienceDecorator executions,
+// i.e. the remote calls to xflights, on the application's virtual thread executor instead
+// of the Cloud SDK's own thread pool. The SDK still propagates its ThreadContext.
+// The SDK's executor is global, so the previous one is restored when the context closes.
+@Component
+@Profile("virtual-threads")
+class ResilienceExecutor implements InitializingBean, DisposableBean {
+
+  private final AsyncTaskExecutor executor;
+  private ThreadContextExecutorService previous;
+
+  ResilienceExecutor(@Qualifier("applicationTaskExecutor") AsyncTaskExecutor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    previous = ThreadContextExecutors.getExecutor();
+    ThreadContextExecutors.setExecutor(
+        DefaultThreadContextExecutorService.of(new ExecutorServiceAdapter(executor)));
+  }
+
+  @Override
+  public void destroy() {
+    ThreadContextExecutors.setExecutor(previous);
+  }
+}
@@ -0,0 +1,111 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.sap.capire.travels.TravelsModel_.SEQUENCES;
+import static cds.gen.sap.capire.travels.TravelsModel_.TRAVELS;
+
+import cds.gen.sap.capire.travels.Sequences;
+import com.sap.cds.UniqueConstraintException;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Insert;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.Update;
+import com.sap.cds.services.ServiceException;
+import com.sap.cds.services.changeset.ChangeSetContext;
+import com.sap.cds.services.persistence.PersistenceService;
+import com.sap.cds.services.runtime.CdsRuntime;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+// Hands out consecutive Travel IDs from the database-backed Sequences table.
+// IDs are reserved in blocks by atomically incrementing the persisted high-water mark
+// in a separate transaction, and then served from memory. So concurrent activations,
+// also on different instances, never get the same ID. Unused IDs of a block are lost
+// on restart, which leaves gaps but no duplicates. Each reservation also checks the highest
+// Travel ID present and re-seeds the sequence after it, if Travels were inserted otherwise.
+@Component
+class TravelIdSequence {
+
+  private static final Logger logger = LoggerFactory.getLogger(TravelIdSequence.class);
+  private static final String NAME = "Travels";
+
+  private final PersistenceService db;
+  private final CdsRuntime runtime;
+  private final int blockSize;
+  private final Timer reservations;
+
+  private int next = 1;
+  private int last = 0;
+
+  TravelIdSequence(
+      PersistenceService db, CdsRuntime runtime, Environment env, MeterRegistry registry) {
+    this.db = db;
+    this.runtime = runtime;
+    this.blockSize = env.getProperty("xtravels.travel-ids.block-size", Integer.class, 100);
+    this.reservations = registry.timer("xtravels.travel_ids.reservations");
+  }
+
+  synchronized int next() {
+    if (next > last) {
+      int reserved = reservations.record(this::reserveBlock);
+      next = reserved - blockSize + 1;
+      last = reserved;
+      logger.debug("Reserved Travel IDs {} to {}", next, last);
+    }
+    return next++;
+  }
+
+  // drops the rest of the reserved block, so the next ID is reserved and re-seeded anew
+  synchronized void discard() {
+    next = last + 1;
+  }
+
+  private int reserveBlock() {
+    try {
+      return runtime.changeSetContext().run(this::reserve);
+    } catch (ServiceException e) {
+      if (!isUniqueConstraintViolation(e)) throw e;
+      // another instance created the sequence concurrently -> increment that one
+      return runtime.changeSetContext().run(this::reserve);
+    }
+  }
+
+  private int reserve(ChangeSetContext changeSet) {
+    var increment =
+        Update.entity(SEQUENCES)
+            .set(Sequences.LAST_VALUE, CQL.get(Sequences.LAST_VALUE).plus(blockSize))
+            .where(s -> s.name().eq(NAME));
+    if (db.run(increment).rowCount() == 0) {
+      Sequences sequence = Sequences.create();
+      sequence.setName(NAME);
+      sequence.setLastValue(blockSize);
+      db.run(Insert.into(SEQUENCES).entry(sequence));
+    }
+    var current = Select.from(SEQUENCES).columns(s -> s.lastValue()).where(s -> s.name().eq(NAME));
+    int reserved = db.run(current).single().getLastValue();
+
+    // Travels inserted past the sequence, e.g. bulk loaded or generated, would collide with the
+    // reserved IDs -> re-seed to continue after the highest Travel ID present
+    var result = db.run(Select.from(TRAVELS).columns(t -> t.ID().max().as("maxID")));
+    Object maxId = result.single().get("maxID");
+    if (maxId != null && (int) maxId > reserved - blockSize) {
+      reserved = (int) maxId + blockSize;
+      logger.debug("Re-seeding Travel IDs after {}", maxId);
+      db.run(
+          Update.entity(SEQUENCES)
+              .data(Sequences.LAST_VALUE, reserved)
+              .where(s -> s.name().eq(NAME)));
+    }
+    return reserved;
+  }
+
+  static boolean isUniqueConstraintViolation(Throwable e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof UniqueConstraintException) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,343 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.sap.capire.travels.TravelsModel_.TRAVELS;
+import static cds.gen.sap.capire.travels.TravelsModel_.TRAVEL_SUMMARIES;
+import static com.sap.cds.services.cds.CqnService.EVENT_CREATE;
+import static com.sap.cds.services.cds.CqnService.EVENT_DELETE;
+import static com.sap.cds.services.cds.CqnService.EVENT_UPDATE;
+import static com.sap.cds.services.cds.CqnService.EVENT_UPSERT;
+import static sap.capire.xtravels.handler.TravelIdSequence.isUniqueConstraintViolation;
+
+import cds.gen.sap.capire.travels.TravelSummaries;
+import cds.gen.travelservice.Bookings;
+import cds.gen.travelservice.Bookings_;
+import cds.gen.travelservice.TravelService_;
+import cds.gen.travelservice.Travels;
+import cds.gen.travelservice.TravelsDeductDiscountsContext;
+import cds.gen.travelservice.Travels_;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Delete;
+import com.sap.cds.ql.Insert;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.Update;
+import com.sap.cds.ql.cqn.CqnAnalyzer;
+import com.sap.cds.ql.cqn.CqnPredicate;
+import com.sap.cds.ql.cqn.CqnStructuredTypeRef;
+import com.sap.cds.services.EventContext;
+import com.sap.cds.services.application.ApplicationLifecycleService;
+import com.sap.cds.services.application.ApplicationPreparedEventContext;
+import com.sap.cds.services.changeset.ChangeSetContext;
+import com.sap.cds.services.changeset.ChangeSetListener;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.After;
+import com.sap.cds.services.handler.annotations.Before;
+import com.sap.cds.services.handler.annotations.On;
+import com.sap.cds.services.handler.annotations.ServiceName;
+import com.sap.cds.services.persistence.PersistenceService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+// Maintains TravelSummaries, the number and TotalPrice of active Travels per Agency,
+// Customer, Status, month of BeginDate and Currency, so dashboards don't aggregate Travels.
+//
+// The summary-relevant state of each Travel is remembered before it's first changed in a
+// change set: by writes to the Travel or its Bookings and Supplements, by the flow actions
+// and by discounts. Right before the change set completes, after the TotalPrices have been
+// recalculated, the state is read again and the difference is added to the summaries.
+// The state before is read with a lock, so concurrent changes of a Travel are serialized.
+// Travels without Agency, Customer, Status or Currency aren't summarized.
+@Component
+@ServiceName(TravelService_.CDS_NAME)
+class TravelSummaryHandler implements EventHandler {
+
+  private static final Logger logger = LoggerFactory.getLogger(TravelSummaryHandler.class);
+
+  private final PersistenceService db;
+  private final RecalculatePriceHandler prices;
+  private final Map<ChangeSetContext, PendingSummaries> pending = new ConcurrentHashMap<>();
+
+  TravelSummaryHandler(PersistenceService db, RecalculatePriceHandler prices) {
+    this.db = db;
+    this.prices = prices;
+  }
+
+  // Summarizes all Travels, when TravelSummaries is deployed to a database with Travels
+  @On(serviceType = ApplicationLifecycleService.class)
+  void initialize(ApplicationPreparedEventContext context) {
+    if (db.run(Select.from(TRAVEL_SUMMARIES).limit(1)).rowCount() > 0) return;
+
+    Map<SummaryKey, Contribution> summaries = new LinkedHashMap<>();
+    var grouped =
+        Select.from(TRAVELS)
+            .columns(
+                t -> t.Agency_ID(),
+                t -> t.Customer_ID(),
+                t -> t.Status_code(),
+                t -> t.BeginDate(),
+                t -> t.Currency_code(),
+                t -> CQL.count().as(TravelSummaries.TRAVELS),
+                t -> CQL.sum(t.TotalPrice()).as(Travels.TOTAL_PRICE))
+            .groupBy(
+                t -> t.Agency_ID(),
+                t -> t.Customer_ID(),
+                t -> t.Status_code(),
+                t -> t.BeginDate(),
+                t -> t.Currency_code());
+    for (var row : db.run(grouped)) {
+      SummaryKey key = SummaryKey.of(row);
+      if (key != null) {
+        int travels = ((Number) row.get(TravelSummaries.TRAVELS)).intValue();
+        summaries.merge(
+            key,
+            new Contribution(travels, amount(row.get(Travels.TOTAL_PRICE))),
+            Contribution::plus);
+      }
+    }
+    if (!summaries.isEmpty()) {
+      var entries = summaries.entrySet().stream().map(e -> e.getKey().data(e.getValue())).toList();
+      db.run(Insert.into(TRAVEL_SUMMARIES).entries(entries));
+      logger.info("Summarized Travels in {} TravelSummaries", entries.size());
+    }
+  }
+
+  @Before(
+      entity = Travels_.CDS_NAME,
+      event = {EVENT_UPDATE, EVENT_DELETE})
+  void rememberOnWrite(CqnStructuredTypeRef ref, EventContext context) {
+    remember(context, ref);
+  }
+
+  @Before(entity = Travels_.CDS_NAME, event = EVENT_UPSERT)
+  void rememberOnUpsert(List<Travels> travels, EventContext context) {
+    pendingSummaries(context).remember(travels.stream().map(Travels::getId).toList());
+  }
+
+  @After(entity = Travels_.CDS_NAME, event = EVENT_CREATE)
+  void rememberCreated(List<Travels> travels, EventContext context) {
+    pendingSummaries(context).created(travels.stream().map(Travels::getId).toList());
+  }
+
+  @Before(
+      entity = Travels_.CDS_NAME,
+      event = {"acceptTravel", "rejectTravel", "reopenTravel", "deductDiscount"})
+  void rememberOnFlow(CqnStructuredTypeRef ref, EventContext context) {
+    remember(context, ref);
+  }
+
+  @Before(entity = Travels_.CDS_NAME)
+  void rememberOnDiscounts(TravelsDeductDiscountsContext context) {
+    pendingSummaries(context).remember(context.getTravels());
+  }
+
+  @Before(
+      entity = {Bookings_.CDS_NAME, Bookings_.Supplements_.CDS_NAME},
+      event = {EVENT_CREATE, EVENT_UPDATE, EVENT_UPSERT, EVENT_DELETE})
+  void rememberOnItemWrite(CqnStructuredTypeRef ref, EventContext context) {
+    remember(context, ref);
+  }
+
+  // Bookings created without path from their Travel
+  @After(entity = Bookings_.CDS_NAME, event = EVENT_CREATE)
+  void rememberOnBookingCreate(List<Bookings> bookings, EventContext context) {
+    pendingSummaries(context).remember(bookings.stream().map(Bookings::getTravelId).toList());
+  }
+
+  // remembers the Travel addressed by the statement's ref, if it's active
+  private void remember(EventContext context, CqnStructuredTypeRef ref) {
+    Map<String, Object> keys = CqnAnalyzer.create(context.getModel()).analyze(ref).rootKeys();
+    if (!Boolean.FALSE.equals(keys.get(Travels.IS_ACTIVE_ENTITY))
+        && keys.get(Travels.ID) instanceof Integer id) {
+      pendingSummaries(context).remember(List.of(id));
+    }
+  }
+
+  private PendingSummaries pendingSummaries(EventContext context) {
+    return pending.computeIfAbsent(
+        context.getChangeSetContext(),
+        changeSet -> {
+          PendingSummaries summaries = new PendingSummaries(changeSet);
+          changeSet.register(summaries);
+          return summaries;
+        });
+  }
+
+  private List<Map<String, Object>> travels(Collection<Integer> ids) {
+    return new ArrayList<>(
+        db.run(
+                Select.from(TRAVELS)
+                    .columns(
+                        t -> t.ID(),
+                        t -> t.Agency_ID(),
+                        t -> t.Customer_ID(),
+                        t -> t.Status_code(),
+                        t -> t.BeginDate(),
+                        t -> t.Currency_code(),
+                        t -> t.TotalPrice())
+                    .where(t -> t.ID().in(List.copyOf(ids)))
+                    .lock())
+            .list());
+  }
+
+  private void add(SummaryKey key, Contribution delta) {
+    if (delta.travels() == 0 && delta.totalPrice().signum() == 0) return;
+
+    var summary =
+        Update.entity(TRAVEL_SUMMARIES)
+            .set(
+                TravelSummaries.TRAVELS,
+                CQL.get(TravelSummaries.TRAVELS).plus(CQL.constant(delta.travels())))
+            .set(
+                TravelSummaries.TOTAL_PRICE,
+                CQL.get(TravelSummaries.TOTAL_PRICE).plus(CQL.constant(delta.totalPrice())))
+            .where(key.matches());
+    if (db.run(summary).rowCount() == 0) {
+      if (delta.travels() <= 0) {
+        logger.warn("Missing TravelSummary {} for {}", key, delta);
+        return;
+      }
+      try {
+        db.run(Insert.into(TRAVEL_SUMMARIES).entry(key.data(delta)));
+      } catch (RuntimeException e) {
+        if (!isUniqueConstraintViolation(e)) throw e;
+        // another change set inserted the summary concurrently -> add to that one
+        db.run(summary);
+      }
+    } else if (delta.travels() < 0) {
+      db.run(
+          Delete.from(TRAVEL_SUMMARIES)
+              .where(CQL.and(key.matches(), CQL.get(TravelSummaries.TRAVELS).le(0))));
+    }
+  }
+
+  private static BigDecimal amount(Object value) {
+    return value == null ? BigDecimal.ZERO : new BigDecimal(value.toString());
+  }
+
+  private record SummaryKey(
+      String agency, String customer, String status, String month, String currency) {
+
+    static SummaryKey of(Map<String, Object> travel) {
+      List<Object> values =
+          Arrays.asList(
+              travel.get(Travels.AGENCY_ID),
+              travel.get(Travels.CUSTOMER_ID),
+              travel.get(Travels.STATUS_CODE),
+              travel.get(Travels.BEGIN_DATE),
+              travel.get(Travels.CURRENCY_CODE));
+      if (values.contains(null)) return null;
+
+      return new SummaryKey(
+          values.get(0).toString(),
+          values.get(1).toString(),
+          values.get(2).toString(),
+          values.get(3).toString().substring(0, 7), // YYYY-MM
+          values.get(4).toString());
+    }
+
+    CqnPredicate matches() {
+      return CQL.and(
+          List.of(
+              CQL.get(TravelSummaries.AGENCY_ID).eq(agency),
+              CQL.get(TravelSummaries.CUSTOMER_ID).eq(customer),
+              CQL.get(TravelSummaries.STATUS_CODE).eq(status),
+              CQL.get(TravelSummaries.MONTH).eq(month),
+              CQL.get(TravelSummaries.CURRENCY_CODE).eq(currency)));
+    }
+
+    TravelSummaries data(Contribution contribution) {
+      TravelSummaries summary = TravelSummaries.create();
+      summary.setAgencyId(agency);
+      summary.setCustomerId(customer);
+      summary.setStatusCode(status);
+      summary.setMonth(month);
+      summary.setCurrencyCode(currency);
+      summary.setTravels(contribution.travels());
+      summary.setTotalPrice(contribution.totalPrice());
+      return summary;
+    }
+  }
+
+  private record Contribution(int travels, BigDecimal totalPrice) {
+
+    static Contribution of(Map<String, Object> travel) {
+      return new Contribution(1, amount(travel.get(Travels.TOTAL_PRICE)));
+    }
+
+    Contribution plus(Contribution other) {
+      return new Contribution(travels + other.travels, totalPrice.add(other.totalPrice));
+    }
+
+    Contribution negate() {
+      return new Contribution(-travels, totalPrice.negate());
+    }
+  }
+
+  // The state of the Travels changed within one change set, before their first change
+  private class PendingSummaries implements ChangeSetListener {
+
+    private final ChangeSetContext changeSet;
+    // null for Travels that didn't exist before
+    private final Map<Integer, Map<String, Object>> before = new HashMap<>();
+
+    PendingSummaries(ChangeSetContext changeSet) {
+      this.changeSet = changeSet;
+    }
+
+    synchronized void remember(Collection<Integer> ids) {
+      List<Integer> unknown =
+          ids.stream()
+              .filter(Objects::nonNull)
+              .distinct()
+              .filter(id -> !before.containsKey(id))
+              .toList();
+      if (unknown.isEmpty()) return;
+
+      unknown.forEach(id -> before.put(id, null));
+      travels(unknown).forEach(travel -> before.put((Integer) travel.get(Travels.ID), travel));
+    }
+
+    synchronized void created(Collection<Integer> ids) {
+      ids.stream().filter(Objects::nonNull).forEach(id -> before.putIfAbsent(id, null));
+    }
+
+    @Override
+    public synchronized void beforeClose() {
+      if (before.isEmpty()) return;
+
+      // TotalPrices of the change set are only final once recalculated
+      prices.flush(changeSet);
+
+      Map<SummaryKey, Contribution> deltas = new LinkedHashMap<>();
+      before.values().stream()
+          .filter(Objects::nonNull)
+          .forEach(travel -> merge(deltas, travel, Contribution.of(travel).negate()));
+      travels(before.keySet()).forEach(travel -> merge(deltas, travel, Contribution.of(travel)));
+      deltas.forEach(TravelSummaryHandler.this::add);
+      before.clear();
+    }
+
+    @Override
+    public void afterClose(boolean completed) {
+      pending.remove(changeSet);
+    }
+
+    private void merge(
+        Map<SummaryKey, Contribution> deltas, Map<String, Object> travel, Contribution delta) {
+      SummaryKey key = SummaryKey.of(travel);
+      if (key != null) {
+        deltas.merge(key, delta, Contribution::plus);
+      }
+    }
+  }
+}
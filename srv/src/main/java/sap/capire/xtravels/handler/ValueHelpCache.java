@@ -0,0 +1,224 @@
+package sap.capire.xtravels.handler;
+
+import static java.time.Duration.ZERO;
+import static java.time.Duration.ofSeconds;
+
+import cds.gen.sap.capire.flights.data.Data;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sap.cds.Result;
+import com.sap.cds.ResultBuilder;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.cqn.CqnSelect;
+import com.sap.cds.reflect.CdsEntity;
+import com.sap.cds.services.cds.CdsReadEventContext;
+import com.sap.cds.services.request.UserInfo;
+import com.sap.cds.services.runtime.CdsRuntime;
+import com.sap.cds.services.runtime.RequestContextRunner;
+import com.sap.cloud.sdk.cloudplatform.resilience.ResilienceConfiguration;
+import com.sap.cloud.sdk.cloudplatform.resilience.ResilienceConfiguration.BulkheadConfiguration;
+import com.sap.cloud.sdk.cloudplatform.resilience.ResilienceConfiguration.CircuitBreakerConfiguration;
+import com.sap.cloud.sdk.cloudplatform.resilience.ResilienceConfiguration.TimeLimiterConfiguration;
+import com.sap.cloud.sdk.cloudplatform.resilience.ResilienceDecorator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+// Caches the results of value help requests delegated to xflights, per query, locale,
+// tenant and user. Entries older than the refresh interval are still served, while they
+// are reloaded in the background; entries older than the TTL are reloaded synchronously.
+// If the remote service fails, the previous entry is kept until it expires.
+// xflights is always called as the requesting user, so its restrictions apply. Entries are
+// refreshed as the user whose request found them stale, with that request's credentials,
+// not as the user who loaded them first. Only entities configured as unrestricted with
+// xtravels.federation.<entity>.value-help-cache.shared share their entries across users.
+// Each request gets a copy of the cached rows.
+//
+// Remote calls are guarded per federated entity by a time limiter, a circuit breaker,
+// which stops calling xflights after repeated failures and probes for its recovery,
+// and a bulkhead limiting the concurrent calls. Each can be configured per entity with
+// xtravels.federation.<entity>.resilience.*, falling back to xtravels.federation.resilience.*
+@Component
+class ValueHelpCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(ValueHelpCache.class);
+
+  private final Data dataService;
+  private final CdsRuntime runtime;
+  private final Environment env;
+  private final MeterRegistry registry;
+  private final AsyncTaskExecutor executor;
+  private final long refreshAfter;
+  private final Cache<Key, Entry> cache;
+  private final Set<Key> refreshing = ConcurrentHashMap.newKeySet();
+  private final Map<String, ResilienceConfiguration> resilience = new ConcurrentHashMap<>();
+
+  ValueHelpCache(
+      Data dataService,
+      CdsRuntime runtime,
+      Environment env,
+      MeterRegistry registry,
+      @Qualifier("applicationTaskExecutor") AsyncTaskExecutor executor) {
+    this.dataService = dataService;
+    this.runtime = runtime;
+    this.env = env;
+    this.registry = registry;
+    this.executor = executor;
+    String prefix = "xtravels.federation.value-help-cache.";
+    this.refreshAfter =
+        env.getProperty(prefix + "refresh-after", Duration.class, Duration.ofMinutes(1)).toNanos();
+    this.cache =
+        Caffeine.newBuilder()
+            .maximumSize(env.getProperty(prefix + "max-size", Long.class, 1000L))
+            .expireAfterWrite(
+                env.getProperty(prefix + "ttl", Duration.class, Duration.ofMinutes(10)))
+            .recordStats()
+            .executor(executor)
+            .build();
+    CaffeineCacheMetrics.monitor(registry, cache, "xtravels.valuehelp");
+  }
+
+  Result get(CdsReadEventContext context, Function<Throwable, Result> fallback) {
+    CdsEntity target = context.getTarget();
+    resilience.computeIfAbsent(target.getQualifiedName(), n -> configure(target));
+    UserInfo user = context.getUserInfo();
+    String sharing = "xtravels.federation." + entityName(target) + ".value-help-cache.shared";
+    boolean shared = env.getProperty(sharing, Boolean.class, false);
+    var key =
+        new Key(
+            target.getQualifiedName(),
+            context.getCqn().toJson(),
+            context.getParameterInfo().getLocale(),
+            user.getTenant(),
+            shared ? null : user.getName());
+    // created on the request's thread, to call xflights as its user, with its credentials,
+    // also from other threads
+    RequestContextRunner requester =
+        runtime.requestContext().modifyParameters(p -> p.setLocale(key.locale()));
+    try {
+      long now = System.nanoTime();
+      Entry entry = cache.get(key, k -> load(k, requester));
+      if (now - entry.loaded() >= refreshAfter) {
+        refresh(key, requester);
+      }
+      return entry.result();
+    } catch (RuntimeException e) {
+      return fallback.apply(e);
+    }
+  }
+
+  // reloads the entry in the background on the application's executor, e.g. on virtual
+  // threads, once at a time per entry
+  private void refresh(Key key, RequestContextRunner requester) {
+    if (!refreshing.add(key)) return;
+    Runnable refresh =
+        () -> {
+          try {
+            cache.put(key, load(key, requester));
+          } catch (RuntimeException e) {
+            logger.warn("Failed to refresh ValueHelp for '{}'", key.entity(), e);
+          } finally {
+            refreshing.remove(key);
+          }
+        };
+    try {
+      executor.execute(refresh);
+    } catch (RuntimeException e) {
+      refreshing.remove(key);
+      logger.warn("Failed to schedule the refresh of ValueHelp for '{}'", key.entity(), e);
+    }
+  }
+
+  private Entry load(Key key, RequestContextRunner requester) {
+    CqnSelect select = Select.cqn(key.cqn());
+    Supplier<Result> remote =
+        () ->
+            requester.run(
+                requestContext -> {
+                  logger.info("Delegating ValueHelp for '{}'", key.entity());
+                  return dataService.run(select);
+                });
+    Result result =
+        registry
+            .timer("xtravels.remote.calls", "entity", key.entity(), "operation", "valuehelp")
+            .record(
+                () -> ResilienceDecorator.executeSupplier(remote, resilience.get(key.entity())));
+    return new Entry(copy(result.list()), result.inlineCount(), System.nanoTime());
+  }
+
+  private ResilienceConfiguration configure(CdsEntity entity) {
+    String name = entityName(entity);
+    return ResilienceConfiguration.of("xtravels-valuehelp-" + name)
+        .timeLimiterConfiguration(
+            TimeLimiterConfiguration.of(setting(name, "timeout", Duration.class, ofSeconds(3))))
+        .circuitBreakerConfiguration(
+            CircuitBreakerConfiguration.of()
+                .failureRateThreshold(setting(name, "failure-rate-threshold", Float.class, 50f))
+                .closedBufferSize(setting(name, "closed-buffer-size", Integer.class, 10))
+                .halfOpenBufferSize(setting(name, "half-open-buffer-size", Integer.class, 3))
+                .waitDuration(setting(name, "wait-duration", Duration.class, ofSeconds(30))))
+        .bulkheadConfiguration(
+            BulkheadConfiguration.of()
+                .maxConcurrentCalls(setting(name, "max-concurrent-calls", Integer.class, 10))
+                .maxWaitDuration(setting(name, "max-wait-duration", Duration.class, ZERO)));
+  }
+
+  private <T> T setting(String entity, String key, Class<T> type, T defaultValue) {
+    String property = "resilience." + key;
+    T value = env.getProperty("xtravels.federation." + property, type, defaultValue);
+    return env.getProperty("xtravels.federation." + entity + "." + property, type, value);
+  }
+
+  private static String entityName(CdsEntity entity) {
+    return entity.getName().toLowerCase(Locale.ROOT);
+  }
+
+  // deep copy, as handlers of each request may modify the rows of its result
+  @SuppressWarnings("unchecked")
+  private static List<Map<String, Object>> copy(List<? extends Map<String, ?>> rows) {
+    return (List<Map<String, Object>>) copyValue(rows);
+  }
+
+  private static Object copyValue(Object value) {
+    if (value instanceof Map<?, ?> map) {
+      Map<String, Object> copy = new LinkedHashMap<>();
+      map.forEach((k, v) -> copy.put((String) k, copyValue(v)));
+      return copy;
+    }
+    if (value instanceof List<?> list) {
+      List<Object> copy = new ArrayList<>(list.size());
+      list.forEach(v -> copy.add(copyValue(v)));
+      return copy;
+    }
+    return value;
+  }
+
+  // user is null for entries shared across users
+  private record Key(String entity, String cqn, Locale locale, String tenant, String user) {}
+
+  private record Entry(List<Map<String, Object>> rows, long inlineCount, long loaded) {
+
+    Result result() {
+      var result = ResultBuilder.selectedRows(copy(rows));
+      if (inlineCount >= 0) {
+        result.inlineCount(inlineCount);
+      }
+      return result.result();
+    }
+  }
+}
@@ -5,35 +5,56 @@ import cds.gen.sap.capire.flights.data.Flights_;
 import com.sap.cds.ql.CQL;
 import com.sap.cds.ql.SelectableValue;
 import com.sap.cds.ql.cqn.CqnElementRef;
+import com.sap.cds.ql.cqn.CqnSelect;
 import com.sap.cds.ql.cqn.CqnSelectListItem;
+import com.sap.cds.ql.cqn.CqnSelectListValue;
 import com.sap.cds.ql.cqn.Modifier;
 import com.sap.cds.services.cds.CdsReadEventContext;
 import com.sap.cds.services.handler.EventHandler;
 import com.sap.cds.services.handler.annotations.Before;
 import com.sap.cds.services.handler.annotations.ServiceName;
+import java.util.List;
 import org.springframework.stereotype.Component;
 
 @Component
 @ServiceName(value = "*", type = Data.class)
 class Workarounds implements EventHandler {
 
+  private static final Modifier ALIAS_PATHS =
+      new Modifier() {
+
+        @Override
+        public CqnSelectListItem selectListValue(SelectableValue value, String alias) {
+          if (value.isRef() && alias == null) {
+            CqnElementRef ref = value.asRef();
+            if (ref.size() > 1) {
+              alias = ref.path();
+            }
+          }
+          return Modifier.super.selectListValue(value, alias);
+        }
+      };
+
+  // Most reads don't select paths without alias, so they are passed on without a copy.
   @Before(entity = Flights_.CDS_NAME)
   void stabilize(CdsReadEventContext context) {
-    context.setCqn(
-        CQL.copy(
-            context.getCqn(),
-            new Modifier() {
+    CqnSelect select = context.getCqn();
+    if (hasUnaliasedPath(select.items())) {
+      context.setCqn(CQL.copy(select, ALIAS_PATHS));
+    }
+  }
 
-              @Override
-              public CqnSelectListItem selectListValue(SelectableValue value, String alias) {
-                if (value.isRef() && alias == null) {
-                  CqnElementRef ref = value.asRef();
-                  if (ref.size() > 1) {
-                    alias = ref.path();
-                  }
-                }
-                return Modifier.super.selectListValue(value, alias);
-              }
-            }));
+  private static boolean hasUnaliasedPath(List<CqnSelectListItem> items) {
+    for (CqnSelectListItem item : items) {
+      if (item.isValue()) {
+        CqnSelectListValue value = item.asValue();
+        if (value.value().isRef() && value.alias().isEmpty() && value.value().asRef().size() > 1) {
+          return true;
+        }
+      } else if (item.isSelectList() && hasUnaliasedPath(item.asSelectList().items())) {
+        return true;
+      }
+    }
+    return false;
   }
 }
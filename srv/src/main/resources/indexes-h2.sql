@@ -0,0 +1,7 @@
+-- Secondary indexes for the filters and joins of the Travels list report, value helps and
+-- aggregations on H2, in addition to schema-h2.sql. See db/src/*.hdbindex for SAP HANA.
+CREATE INDEX IF NOT EXISTS sap_capire_travels_Travels_BeginDate ON sap_capire_travels_Travels (BeginDate);
+CREATE INDEX IF NOT EXISTS sap_capire_travels_Travels_EndDate ON sap_capire_travels_Travels (EndDate);
+CREATE INDEX IF NOT EXISTS sap_capire_travels_Travels_Status ON sap_capire_travels_Travels (Status_code);
+CREATE INDEX IF NOT EXISTS sap_capire_travels_Bookings_Flight ON sap_capire_travels_Bookings (Flight_ID, Flight_date);
+CREATE INDEX IF NOT EXISTS sap_capire_travels_Travels_transitions_Travel ON sap_capire_travels_Travels_transitions_ (up__ID, timestamp);
@@ -0,0 +1,66 @@
+package sap.capire.xtravels;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import cds.gen.travelservice.Travels;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+// The hints are registered on the JVM, with the classpath that process-aot sees
+class NativeHintsTest {
+
+  private final RuntimeHints hints = new RuntimeHints();
+
+  @BeforeEach
+  void registerHints() {
+    new NativeHints().registerHints(hints, getClass().getClassLoader());
+  }
+
+  @Test
+  void shouldRegisterProxiesOfGeneratedInterfaces() {
+    assertThat(RuntimeHintsPredicates.proxies().forInterfaces(Travels.class)).accepts(hints);
+    assertThat(
+            RuntimeHintsPredicates.reflection()
+                .onType(Travels.class)
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_METHODS))
+        .accepts(hints);
+  }
+
+  @Test
+  void shouldRegisterMethodsOfEventHandlers() {
+    assertThat(
+            RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of("sap.capire.xtravels.handler.CreationHandler"))
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_METHODS))
+        .accepts(hints);
+  }
+
+  @Test
+  void shouldRegisterConstructorsOfCaffeineNodes() {
+    assertThat(
+            RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of("com.github.benmanes.caffeine.cache.PS"))
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS))
+        .accepts(hints);
+  }
+
+  @Test
+  void shouldRegisterConstructorsOfCloudSdkProviders() {
+    assertThat(
+            RuntimeHintsPredicates.reflection()
+                .onType(
+                    TypeReference.of(
+                        "com.sap.cloud.sdk.cloudplatform.thread.ThreadLocalThreadContextFacade"))
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS))
+        .accepts(hints);
+    assertThat(
+            RuntimeHintsPredicates.resource()
+                .forResource(
+                    "META-INF/services/com.sap.cloud.sdk.cloudplatform.thread.ThreadContextFacade"))
+        .accepts(hints);
+  }
+}
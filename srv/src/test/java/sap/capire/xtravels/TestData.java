@@ -5,6 +5,8 @@ import cds.gen.travelservice.Supplements;
 import cds.gen.travelservice.Travels;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TestData {
 
@@ -22,6 +24,22 @@ public class TestData {
     return travel;
   }
 
+  public static Travels createTravelData(int bookings, int supplementsPerBooking) {
+    Travels travel = createTravelData();
+    List<Bookings> list = new ArrayList<>();
+    for (int i = 0; i < bookings; i++) {
+      Bookings booking = createBookingData();
+      List<Bookings.Supplements> supplements = new ArrayList<>();
+      for (int j = 0; j < supplementsPerBooking; j++) {
+        supplements.add(createSupplementData());
+      }
+      booking.setSupplements(supplements);
+      list.add(booking);
+    }
+    travel.setBookings(list);
+    return travel;
+  }
+
   public static Bookings createBookingData() {
     Bookings booking = Bookings.create();
     booking.setFlightId("GA0322");
@@ -0,0 +1,117 @@
+package sap.capire.xtravels.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BulkDataLoaderTest {
+
+  @Test
+  void shouldParseQuotedFields() {
+    var records = BulkDataLoader.parse("ID,Name\n1,\"Doe, John\"\n", ',');
+
+    assertThat(records).containsExactly(List.of("ID", "Name"), List.of("1", "Doe, John"));
+  }
+
+  @Test
+  void shouldParseEscapedQuotesAndLineBreaksInQuotedFields() {
+    var records = BulkDataLoader.parse("ID,Memo\n1,\"say \"\"hi\"\"\nand bye\"\n", ',');
+
+    assertThat(records).containsExactly(List.of("ID", "Memo"), List.of("1", "say \"hi\"\nand bye"));
+  }
+
+  @Test
+  void shouldParseCrlfLineBreaks() {
+    var records = BulkDataLoader.parse("ID,Name\r\n1,a\r\n2,b\r\n\r\n", ',');
+
+    assertThat(records)
+        .containsExactly(List.of("ID", "Name"), List.of("1", "a"), List.of("2", "b"));
+  }
+
+  @Test
+  void shouldParseSemicolonSeparatedFields() {
+    var records = BulkDataLoader.records("ID;Price\n1;1,5\n");
+
+    assertThat(records).containsExactly(List.of("ID", "Price"), List.of("1", "1,5"));
+  }
+
+  @Test
+  void shouldParseCommaSeparatedFieldsByDefault() {
+    var records = BulkDataLoader.records("ID,Memo\n1,a;b\n");
+
+    assertThat(records).containsExactly(List.of("ID", "Memo"), List.of("1", "a;b"));
+  }
+
+  @Test
+  void shouldParseEmptyFields() {
+    var records = BulkDataLoader.parse("ID,Name,City\n1,,\n", ',');
+
+    assertThat(records).containsExactly(List.of("ID", "Name", "City"), List.of("1", "", ""));
+  }
+
+  @Test
+  void shouldParseLastRecordWithoutLineBreak() {
+    var records = BulkDataLoader.parse("ID\n1", ',');
+
+    assertThat(records).containsExactly(List.of("ID"), List.of("1"));
+  }
+
+  @Test
+  void shouldSkipByteOrderMark() {
+    var records = BulkDataLoader.records("\uFEFFID,Name\n1,a\n");
+
+    assertThat(records).containsExactly(List.of("ID", "Name"), List.of("1", "a"));
+  }
+
+  @Test
+  void shouldConvertNumbers() {
+    assertThat(BulkDataLoader.value("42", Types.INTEGER)).isEqualTo(42);
+    assertThat(BulkDataLoader.value("42", Types.BIGINT)).isEqualTo(42L);
+    assertThat(BulkDataLoader.value("12.30", Types.DECIMAL)).isEqualTo(new BigDecimal("12.30"));
+  }
+
+  @Test
+  void shouldConvertBooleans() {
+    assertThat(BulkDataLoader.value("true", Types.BOOLEAN)).isEqualTo(true);
+    assertThat(BulkDataLoader.value("TRUE", Types.BOOLEAN)).isEqualTo(true);
+    assertThat(BulkDataLoader.value("1", Types.BOOLEAN)).isEqualTo(true);
+    assertThat(BulkDataLoader.value("false", Types.BOOLEAN)).isEqualTo(false);
+    assertThat(BulkDataLoader.value("0", Types.BIT)).isEqualTo(false);
+  }
+
+  @Test
+  void shouldConvertDatesAndTimes() {
+    assertThat(BulkDataLoader.value("2024-06-01", Types.DATE)).isEqualTo(LocalDate.of(2024, 6, 1));
+    assertThat(BulkDataLoader.value("10:15:30", Types.TIME)).isEqualTo(LocalTime.of(10, 15, 30));
+  }
+
+  @Test
+  void shouldConvertTimestampsToUtc() {
+    LocalDateTime utc = LocalDateTime.of(2024, 6, 1, 10, 15, 30);
+
+    assertThat(BulkDataLoader.value("2024-06-01T10:15:30Z", Types.TIMESTAMP)).isEqualTo(utc);
+    assertThat(BulkDataLoader.value("2024-06-01T12:15:30+02:00", Types.TIMESTAMP)).isEqualTo(utc);
+    assertThat(BulkDataLoader.value("2024-06-01T10:15:30", Types.TIMESTAMP)).isEqualTo(utc);
+    assertThat(BulkDataLoader.value("2024-06-01 10:15:30", Types.TIMESTAMP)).isEqualTo(utc);
+    assertThat(BulkDataLoader.value("2024-06-01T10:15:30.123Z", Types.TIMESTAMP_WITH_TIMEZONE))
+        .isEqualTo(utc.withNano(123_000_000));
+  }
+
+  @Test
+  void shouldConvertEmptyFieldsToNull() {
+    assertThat(BulkDataLoader.value("", Types.INTEGER)).isNull();
+    assertThat(BulkDataLoader.value("", null)).isNull();
+  }
+
+  @Test
+  void shouldKeepFieldsOfOtherTypes() {
+    assertThat(BulkDataLoader.value("GA0322", Types.VARCHAR)).isEqualTo("GA0322");
+    assertThat(BulkDataLoader.value("GA0322", null)).isEqualTo("GA0322");
+  }
+}
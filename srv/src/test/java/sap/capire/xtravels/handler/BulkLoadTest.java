@@ -0,0 +1,134 @@
+package sap.capire.xtravels.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.system.CapturedOutput;
+import org.springframework.boot.test.system.OutputCaptureExtension;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import sap.capire.xtravels.Application;
+
+// The data is loaded by BulkDataLoader, which saves a snapshot for the next start. Further
+// applications are started next to it, each with a database of its own unless stated otherwise.
+// Natively, these would only have the beans of the profiles that process-aot was run with.
+@SpringBootTest(
+    properties = {"skip-initial-load=true", "xtravels.federation.delta-sync.enabled=false"})
+@ActiveProfiles({"default", "bulk-load"})
+@ExtendWith(OutputCaptureExtension.class)
+@DisabledInNativeImage
+class BulkLoadTest {
+
+  private static final Path SNAPSHOTS;
+
+  static {
+    try {
+      SNAPSHOTS = Files.createTempDirectory("data-snapshots");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @DynamicPropertySource
+  static void snapshots(DynamicPropertyRegistry registry) {
+    registry.add("xtravels.bulk-load.snapshots", SNAPSHOTS::toString);
+  }
+
+  @Autowired private JdbcTemplate jdbc;
+
+  @Test
+  void shouldLoadAsManyRowsAsTheCsvImport() {
+    try (var imported = start(List.of("default"))) {
+      Map<String, Integer> expected = rowCounts(imported.getBean(JdbcTemplate.class));
+      assertThat(expected.values()).anyMatch(count -> count > 0);
+      assertThat(rowCounts(jdbc)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  void shouldRestoreSnapshotOnNextStart(CapturedOutput output) {
+    assertThat(snapshots()).hasSize(1);
+    Path snapshot = snapshots().get(0);
+
+    try (var restored = start(List.of("default", "bulk-load"))) {
+      assertThat(output).contains("from " + snapshot);
+      assertThat(rowCounts(restored.getBean(JdbcTemplate.class))).isEqualTo(rowCounts(jdbc));
+    }
+    assertThat(snapshots()).containsExactly(snapshot);
+  }
+
+  @Test
+  void shouldSkipTablesWithRows(CapturedOutput output) throws Exception {
+    Map<String, Integer> loaded = rowCounts(jdbc);
+    String url;
+    try (var connection = jdbc.getDataSource().getConnection()) {
+      url = connection.getMetaData().getURL();
+    }
+
+    // on the database loaded already, without initializing its schema again
+    try (var ignored =
+        start(
+            List.of("default", "bulk-load"),
+            "spring.datasource.url=" + url,
+            "spring.sql.init.mode=never")) {
+      assertThat(output).contains("which already contains rows");
+    }
+    assertThat(rowCounts(jdbc)).isEqualTo(loaded);
+  }
+
+  private static ConfigurableApplicationContext start(List<String> profiles, String... properties) {
+    List<String> defaults =
+        new ArrayList<>(
+            List.of(
+                "spring.main.web-application-type=none",
+                "spring.main.banner-mode=off",
+                "skip-initial-load=true",
+                "xtravels.federation.delta-sync.enabled=false",
+                "xtravels.bulk-load.snapshots=" + SNAPSHOTS));
+    defaults.addAll(List.of(properties));
+    return new SpringApplicationBuilder(Application.class)
+        .profiles(profiles.toArray(String[]::new))
+        .properties(defaults.toArray(String[]::new))
+        .run();
+  }
+
+  // the number of rows of each table
+  private static Map<String, Integer> rowCounts(JdbcTemplate jdbc) {
+    List<String> tables =
+        jdbc.queryForList(
+            "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES"
+                + " WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_TYPE = 'BASE TABLE'",
+            String.class);
+    Map<String, Integer> counts = new TreeMap<>();
+    for (String table : tables) {
+      counts.put(
+          table, jdbc.queryForObject("SELECT COUNT(*) FROM \"" + table + "\"", Integer.class));
+    }
+    return counts;
+  }
+
+  private static List<Path> snapshots() {
+    try (Stream<Path> files = Files.list(SNAPSHOTS)) {
+      return files.filter(file -> file.toString().endsWith(".bin.gz")).toList();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.sap.capire.xflights.Xflights_.REPLICATIONS;
+import static com.sap.cds.services.cds.CqnService.EVENT_UPDATE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import cds.gen.sap.capire.flights.data.Data;
+import cds.gen.sap.capire.xflights.Flights_;
+import cds.gen.sap.capire.xflights.Replications;
+import com.sap.cds.CdsData;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.Update;
+import com.sap.cds.ql.Upsert;
+import com.sap.cds.services.cds.CdsUpdateEventContext;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.Before;
+import com.sap.cds.services.persistence.PersistenceService;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+// Flights are synchronized by their date, which many of them share, in batches of two
+@SpringBootTest(
+    properties = {
+      "skip-initial-load=true",
+      "xtravels.federation.delta-sync.initial-delay=PT1H",
+      "xtravels.federation.delta-sync.batch-size=2",
+      "xtravels.federation.flights.delta-sync.watermark=date",
+      "xtravels.federation.supplements.delta-sync.watermark=none"
+    })
+class DeltaSyncTest {
+
+  @Autowired private DeltaSync deltaSync;
+  @Autowired private PersistenceService db;
+  @Autowired private Data flightsService;
+  @Autowired private Recorder recorder;
+
+  private LocalDate start;
+  private List<List<Object>> changed;
+
+  @BeforeEach
+  void setup() {
+    var flights = flightsService.run(Select.from(Flights_.CDS_NAME).columns("ID", "date")).list();
+    List<LocalDate> dates =
+        flights.stream().map(f -> (LocalDate) f.get("date")).distinct().sorted().toList();
+    // start after all but the last few dates
+    start = dates.get(Math.max(0, dates.size() - 4));
+    changed =
+        flights.stream()
+            .filter(f -> ((LocalDate) f.get("date")).isAfter(start))
+            .map(f -> List.of(f.get("ID"), f.get("date")))
+            .toList();
+    saveState(start, null, null);
+    recorder.onUpdate = null;
+  }
+
+  @Test
+  void shouldUpdateEachChangeOnceAcrossBatches() {
+    List<List<Object>> updated = recorder.record(deltaSync::synchronize);
+
+    assertThat(changed).hasSizeGreaterThan(2);
+    assertThat(updated).containsExactlyInAnyOrderElementsOf(changed);
+    assertThat(state().getWatermark()).isEqualTo(watermark(last()));
+    assertThat(state().getLeaseOwner()).isNull();
+  }
+
+  @Test
+  void shouldResumeFromStoredWatermark() {
+    recorder.record(deltaSync::synchronize);
+
+    assertThat(recorder.record(deltaSync::synchronize)).isEmpty();
+  }
+
+  @Test
+  void shouldSkipEntityLeasedByOtherInstance() {
+    saveState(start, "other", Instant.now().plusSeconds(3600));
+
+    assertThat(recorder.record(deltaSync::synchronize)).isEmpty();
+    assertThat(state().getWatermark()).isEqualTo(watermark(start));
+    assertThat(state().getLeaseOwner()).isEqualTo("other");
+  }
+
+  @Test
+  void shouldStopWhenLeaseIsTakenOver() {
+    // another instance takes the lease over, e.g. after this one stalled beyond its expiry
+    recorder.onUpdate =
+        () -> {
+          Replications state = Replications.create();
+          state.setLeaseOwner("other");
+          db.run(
+              Update.entity(REPLICATIONS).data(state).where(r -> r.name().eq(Flights_.CDS_NAME)));
+        };
+
+    List<List<Object>> updated = recorder.record(deltaSync::synchronize);
+
+    assertThat(updated).hasSizeLessThan(changed.size());
+    assertThat(state().getWatermark()).isEqualTo(watermark(start));
+    assertThat(state().getLeaseOwner()).isEqualTo("other");
+  }
+
+  private LocalDate last() {
+    return changed.stream().map(f -> (LocalDate) f.get(1)).max(LocalDate::compareTo).orElseThrow();
+  }
+
+  private static String watermark(LocalDate date) {
+    return CdsData.create(Map.of("date", date)).toJson();
+  }
+
+  private void saveState(LocalDate watermark, String leaseOwner, Instant leaseUntil) {
+    Replications state = Replications.create();
+    state.setName(Flights_.CDS_NAME);
+    state.setWatermark(watermark(watermark));
+    state.setLeaseOwner(leaseOwner);
+    state.setLeaseUntil(leaseUntil);
+    db.run(Upsert.into(REPLICATIONS).entry(state));
+  }
+
+  private Replications state() {
+    return db.run(Select.from(REPLICATIONS).byId(Flights_.CDS_NAME)).single(Replications.class);
+  }
+
+  @TestConfiguration
+  static class RecordingConfiguration {
+
+    @Bean
+    Recorder recorder() {
+      return new Recorder();
+    }
+  }
+
+  // records the keys of the Flights replicas updated
+  static class Recorder implements EventHandler {
+
+    private volatile List<List<Object>> recorded;
+    volatile Runnable onUpdate;
+
+    synchronized List<List<Object>> record(Runnable statements) {
+      recorded = new CopyOnWriteArrayList<>();
+      try {
+        statements.run();
+        return List.copyOf(recorded);
+      } finally {
+        recorded = null;
+      }
+    }
+
+    @Before(
+        event = EVENT_UPDATE,
+        entity = Flights_.CDS_NAME,
+        serviceType = PersistenceService.class)
+    void update(CdsUpdateEventContext context) {
+      List<List<Object>> updated = recorded;
+      if (updated == null) return;
+      context
+          .getCqn()
+          .entries()
+          .forEach(row -> updated.add(List.of(row.get("ID"), row.get("date"))));
+      if (onUpdate != null) {
+        onUpdate.run();
+      }
+    }
+  }
+}
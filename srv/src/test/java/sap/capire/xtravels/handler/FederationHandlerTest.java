@@ -0,0 +1,147 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.travelservice.TravelService_.TRAVELS;
+import static com.sap.cds.services.cds.CqnService.EVENT_READ;
+import static com.sap.cds.services.cds.CqnService.EVENT_UPSERT;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static sap.capire.xtravels.TestData.createBookingData;
+import static sap.capire.xtravels.TestData.createSupplementData;
+import static sap.capire.xtravels.TestData.createTravelData;
+
+import cds.gen.sap.capire.flights.data.Data;
+import cds.gen.sap.capire.flights.data.Data_;
+import cds.gen.travelservice.Bookings;
+import cds.gen.travelservice.Supplements;
+import cds.gen.travelservice.TravelService;
+import cds.gen.travelservice.Travels;
+import com.sap.cds.Row;
+import com.sap.cds.ql.Insert;
+import com.sap.cds.ql.Select;
+import com.sap.cds.services.EventContext;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.Before;
+import com.sap.cds.services.persistence.PersistenceService;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.security.test.context.support.WithMockUser;
+
+@SpringBootTest(
+    properties = {"skip-initial-load=true", "xtravels.federation.delta-sync.enabled=false"})
+class FederationHandlerTest {
+
+  private static final String FLIGHTS = "sap.capire.xflights.Flights";
+  private static final String SUPPLEMENTS = "sap.capire.xflights.Supplements";
+
+  @Autowired private TravelService srv;
+  @Autowired private PersistenceService db;
+  @Autowired private Data flightsService;
+  @Autowired private Recorder recorder;
+
+  @Test
+  @WithMockUser("admin")
+  void shouldReplicateAllMissingReferencesOfEachEntityAtOnce() {
+    List<Row> flights = unreplicated(FLIGHTS, 3, "ID", "date");
+    List<Row> supplements = unreplicated(SUPPLEMENTS, 2, "ID");
+    List<Bookings> bookings = new ArrayList<>();
+    for (Row flight : flights) {
+      Bookings booking = createBookingData();
+      booking.setFlightId((String) flight.get("ID"));
+      booking.setFlightDate((LocalDate) flight.get("date"));
+      List<Bookings.Supplements> booked = new ArrayList<>();
+      for (Row supplement : supplements) {
+        Bookings.Supplements bookedSupplement = createSupplementData();
+        bookedSupplement.setBooked(Supplements.create((String) supplement.get("ID")));
+        booked.add(bookedSupplement);
+      }
+      booking.setSupplements(booked);
+      bookings.add(booking);
+    }
+    Travels travel = createTravelData();
+    travel.setBeginDate(
+        bookings.stream().map(Bookings::getFlightDate).min(LocalDate::compareTo).get());
+    travel.setEndDate(
+        bookings.stream()
+            .map(Bookings::getFlightDate)
+            .max(LocalDate::compareTo)
+            .get()
+            .plus(1, DAYS));
+    travel.setBookings(bookings);
+
+    List<String> events = recorder.record(() -> srv.run(Insert.into(TRAVELS).entry(travel)));
+
+    // one query of the missing keys and one bulk upsert per entity
+    assertThat(events)
+        .containsExactlyInAnyOrder(
+            "READ Flights", "UPSERT Flights", "READ Supplements", "UPSERT Supplements");
+    for (Row flight : flights) {
+      assertThat(isReplicated(FLIGHTS, flight)).isTrue();
+    }
+    for (Row supplement : supplements) {
+      assertThat(isReplicated(SUPPLEMENTS, supplement)).isTrue();
+    }
+  }
+
+  // keys of the first remote instances that aren't replicated yet
+  private List<Row> unreplicated(String replica, int count, String... keys) {
+    return flightsService.run(Select.from(replica).columns(keys)).stream()
+        .filter(row -> !isReplicated(replica, row))
+        .limit(count)
+        .toList();
+  }
+
+  private boolean isReplicated(String replica, Row keys) {
+    return db.run(Select.from(replica).matching(keys)).rowCount() > 0;
+  }
+
+  @TestConfiguration
+  static class RecordingConfiguration {
+
+    @Bean
+    Recorder recorder() {
+      return new Recorder();
+    }
+  }
+
+  // records the reads of the remote service and the upserts into the database, by event and
+  // the target's name without namespace, which differs between the remote and replica entities
+  static class Recorder implements EventHandler {
+
+    private volatile List<String> recorded;
+
+    synchronized List<String> record(Runnable statements) {
+      recorded = new CopyOnWriteArrayList<>();
+      try {
+        statements.run();
+        return List.copyOf(recorded);
+      } finally {
+        recorded = null;
+      }
+    }
+
+    @Before(event = EVENT_READ, service = Data_.CDS_NAME)
+    void read(EventContext context) {
+      add(context);
+    }
+
+    @Before(event = EVENT_UPSERT, serviceType = PersistenceService.class)
+    void upsert(EventContext context) {
+      add(context);
+    }
+
+    private void add(EventContext context) {
+      List<String> events = recorded;
+      if (events != null) {
+        String name = context.getTarget().getQualifiedName();
+        events.add(context.getEvent() + " " + name.substring(name.lastIndexOf('.') + 1));
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package sap.capire.xtravels.handler;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Insert;
+import com.sap.cds.ql.Select;
+import com.sap.cds.services.persistence.PersistenceService;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest(
+    properties = {
+      "xtravels.flow-history.compaction.retention=P30D",
+      "xtravels.flow-history.compaction.keep=3",
+      "xtravels.flow-history.compaction.batch-size=1",
+      "xtravels.flow-history.compaction.initial-delay=PT1H"
+    })
+class FlowHistoryTest {
+
+  private static final String TRANSITIONS = "sap.capire.travels.Travels.transitions_";
+
+  @Autowired private FlowHistory flowHistory;
+  @Autowired private PersistenceService db;
+
+  @Test
+  void shouldKeepNewestTransitionsOfEachTravel() {
+    Instant now = Instant.now().truncatedTo(DAYS);
+    List<Instant> recent = List.of(now.minus(1, DAYS), now.minus(2, DAYS));
+    List<Instant> old =
+        List.of(now.minus(40, DAYS), now.minus(41, DAYS), now.minus(42, DAYS), now.minus(43, DAYS));
+    // both Travels also have an old transition from the CSV data
+    seed(1, recent);
+    seed(1, old);
+    seed(2, old);
+
+    flowHistory.compact();
+
+    assertThat(transitions(1)).containsExactly(recent.get(0), recent.get(1), old.get(0));
+    assertThat(transitions(2)).containsExactly(old.get(0), old.get(1), old.get(2));
+  }
+
+  private void seed(int travel, List<Instant> timestamps) {
+    var transitions =
+        timestamps.stream()
+            .map(
+                timestamp ->
+                    Map.<String, Object>of("up__ID", travel, "status", "O", "timestamp", timestamp))
+            .toList();
+    db.run(Insert.into(TRANSITIONS).entries(transitions));
+  }
+
+  // the timestamps of the transitions of the given Travel, newest first
+  private List<Instant> transitions(int travel) {
+    var transitions =
+        Select.from(TRANSITIONS)
+            .columns("timestamp")
+            .where(t -> t.get("up__ID").eq(travel))
+            .orderBy(CQL.get("timestamp").desc());
+    return db.run(transitions).stream().map(row -> (Instant) row.get("timestamp")).toList();
+  }
+}
@@ -0,0 +1,42 @@
+package sap.capire.xtravels.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import cds.gen.sap.capire.xflights.Flights_;
+import com.sap.cds.ql.Select;
+import com.sap.cds.reflect.CdsEntity;
+import com.sap.cds.reflect.CdsModel;
+import com.sap.cds.services.persistence.PersistenceService;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest(properties = "xtravels.federation.initial-load.async=true")
+class InitialLoadTest {
+
+  @Autowired private InitialLoad initialLoad;
+  @Autowired private ReplicaIndex replicas;
+  @Autowired private PersistenceService db;
+  @Autowired private CdsModel model;
+
+  @Test
+  void shouldIndexReplicasLoadedInBackground() throws InterruptedException {
+    CdsEntity flights = model.getEntity(Flights_.CDS_NAME);
+    // e.g. a write while the initial load runs indexes the replicas loaded so far
+    replicas.isComplete(flights);
+
+    long deadline = System.currentTimeMillis() + 60_000;
+    while (initialLoad.isRunning() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+
+    assertThat(initialLoad.isRunning()).isFalse();
+    assertThat(replicas.isComplete(flights)).isTrue();
+    List<String> keyNames = ReplicaIndex.keyNames(flights);
+    var replicated = db.run(Select.from(flights).columns(keyNames.toArray(String[]::new)));
+    assertThat(replicated.rowCount()).isPositive();
+    replicated.forEach(
+        row -> assertThat(replicas.contains(flights, ReplicaIndex.key(keyNames, row))).isTrue());
+  }
+}
@@ -0,0 +1,68 @@
+package sap.capire.xtravels.handler;
+
+import static cds.gen.travelservice.TravelService_.TRAVELS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static sap.capire.xtravels.TestData.createBookingData;
+import static sap.capire.xtravels.TestData.createTravelData;
+
+import cds.gen.sap.capire.xflights.Flights_;
+import cds.gen.travelservice.TravelService;
+import cds.gen.travelservice.Travels;
+import cds.gen.travelservice.Travels_;
+import com.sap.cds.ql.Insert;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+@SpringBootTest
+class MetricsTest {
+
+  @Autowired private MeterRegistry registry;
+  @Autowired private TravelService srv;
+  @Autowired private InitialLoad initialLoad;
+
+  @Test
+  @WithMockUser("admin")
+  void shouldTimeHandlersOfCreatedTravel() {
+    long travelIds = timed("xtravels.travel_ids");
+    long checks = timed("xtravels.replication.checks", "entity", Travels_.CDS_NAME);
+    Travels travel = createTravelData();
+    travel.setBookings(List.of(createBookingData()));
+
+    srv.run(Insert.into(TRAVELS).entry(travel));
+
+    assertThat(timed("xtravels.travel_ids")).isEqualTo(travelIds + 1);
+    assertThat(timed("xtravels.replication.checks", "entity", Travels_.CDS_NAME))
+        .isEqualTo(checks + 1);
+  }
+
+  @Test
+  void shouldReportProgressOfLastInitialLoad() {
+    assertThat(registry.find("xtravels.initial_load.total").gauges()).hasSize(2);
+    // the initial load on start replicated all Flights referenced by Bookings
+    assertThat(gauge("xtravels.initial_load.total"))
+        .isPositive()
+        .isEqualTo(initialLoad.progress().get(Flights_.CDS_NAME).total());
+    assertThat(gauge("xtravels.initial_load.completed"))
+        .isEqualTo(gauge("xtravels.initial_load.total"));
+
+    // completed already, so nothing is pending in a new run
+    initialLoad.run();
+
+    assertThat(gauge("xtravels.initial_load.total")).isZero();
+    assertThat(gauge("xtravels.initial_load.completed")).isZero();
+  }
+
+  // the number of recordings of the timer with the given tags, as key-value pairs
+  private long timed(String timer, String... tags) {
+    var found = registry.find(timer).tags(tags).timer();
+    return found == null ? 0 : found.count();
+  }
+
+  private double gauge(String gauge) {
+    return registry.get(gauge).tag("entity", Flights_.CDS_NAME).gauge().value();
+  }
+}
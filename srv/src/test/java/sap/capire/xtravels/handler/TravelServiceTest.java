@@ -1,20 +1,43 @@
 package sap.capire.xtravels.handler;
 
+import static cds.gen.travelservice.TravelService_.BOOKINGS;
 import static cds.gen.travelservice.TravelService_.TRAVELS;
 import static java.time.temporal.ChronoUnit.DAYS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static sap.capire.xtravels.TestData.createBookingData;
 import static sap.capire.xtravels.TestData.createTravelData;
 import static sap.capire.xtravels.util.ServiceExceptionAssert.assertThatServiceException;
 
+import cds.gen.sap.capire.flights.data.Data;
+import cds.gen.sap.capire.travels.TravelsModel_;
 import cds.gen.travelservice.Bookings;
 import cds.gen.travelservice.TravelService;
 import cds.gen.travelservice.Travels;
 import com.sap.cds.Result;
+import com.sap.cds.Row;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Delete;
 import com.sap.cds.ql.Insert;
+import com.sap.cds.ql.Select;
 import com.sap.cds.ql.cqn.CqnInsert;
+import com.sap.cds.services.ServiceException;
+import com.sap.cds.services.changeset.ChangeSetContext;
+import com.sap.cds.services.persistence.PersistenceService;
+import com.sap.cds.services.runtime.CdsRuntime;
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -26,6 +49,9 @@ public class TravelServiceTest {
   private Travels travel = createTravelData();
 
   @Autowired private TravelService srv;
+  @Autowired private CdsRuntime runtime;
+  @Autowired private PersistenceService db;
+  @Autowired private Data flightsService;
 
   // Travels
 
@@ -39,6 +65,16 @@ public class TravelServiceTest {
     assertThat(result.rowCount()).isEqualTo(1l);
   }
 
+  @Test
+  @WithMockUser("admin")
+  public void testCreateTravel_UpdatesTravelSummaries() {
+    long before = summarizedTravels();
+
+    srv.run(Insert.into(TRAVELS).entry(travel));
+
+    assertThat(summarizedTravels()).isEqualTo(before + 1);
+  }
+
   @Test
   @WithMockUser("admin")
   public void testCreateTravel_DescriptionTooShort() {
@@ -117,8 +153,106 @@ public class TravelServiceTest {
         .thatTargets("BookingFee");
   }
 
+  @Test
+  public void testCreateTravels_ConcurrentlyGetDistinctIds() throws Exception {
+    int count = 300;
+    Set<Integer> ids = ConcurrentHashMap.newKeySet();
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      List<Callable<Integer>> creates = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        creates.add(
+            () ->
+                runtime
+                    .requestContext()
+                    .privilegedUser()
+                    .run(
+                        rc -> {
+                          CqnInsert insert = Insert.into(TRAVELS).entry(createTravelData());
+                          return srv.run(insert).single(Travels.class).getId();
+                        }));
+      }
+      for (Future<Integer> id : executor.invokeAll(creates)) {
+        ids.add(id.get());
+      }
+
+      assertThat(ids).hasSize(count).doesNotContainNull();
+    } finally {
+      executor.shutdown();
+      deleteTravels(ids);
+    }
+  }
+
+  @Test
+  @WithMockUser("admin")
+  public void testCreateTravel_IdsContinueAfterTravelsInsertedOtherwise() {
+    int taken =
+        srv.run(Insert.into(TRAVELS).entry(createTravelData())).single(Travels.class).getId() + 1;
+    Map<String, Object> inserted = new HashMap<>(createTravelData());
+    inserted.remove(Travels.IS_ACTIVE_ENTITY);
+    inserted.put(Travels.ID, taken);
+    db.run(Insert.into(TravelsModel_.TRAVELS).entry(inserted));
+    try {
+      try {
+        srv.run(Insert.into(TRAVELS).entry(createTravelData()));
+      } catch (ServiceException e) {
+        // collided with the inserted Travel, if that was the next reserved ID
+      }
+
+      Travels created = srv.run(Insert.into(TRAVELS).entry(travel)).single(Travels.class);
+
+      assertThat(created.getId()).isGreaterThan(taken);
+    } finally {
+      db.run(Delete.from(TravelsModel_.TRAVELS).byId(taken));
+    }
+  }
+
+  @Test
+  @WithMockUser("admin")
+  public void testCreateTravel_FailedAfterReplication_ReplicatesOnRetry() {
+    Row flight = unreplicatedFlight();
+    Runnable create = () -> srv.run(Insert.into(TRAVELS).entry(travelWithBooking(flight)));
+    Consumer<ChangeSetContext> failingCreate =
+        changeSet -> {
+          create.run();
+          throw new IllegalStateException("failed after replication");
+        };
+
+    assertThatThrownBy(() -> runtime.changeSetContext().run(failingCreate))
+        .hasStackTraceContaining("failed after replication");
+    assertThat(isReplicated(flight)).isFalse();
+
+    create.run();
+
+    assertThat(isReplicated(flight)).isTrue();
+  }
+
   // Bookings
 
+  @Test
+  @WithMockUser("admin")
+  public void testCreateTravel_withBookings_ConsecutivePositions() {
+    travel.setBookings(List.of(createBookingData(), createBookingData(), createBookingData()));
+    CqnInsert insert = Insert.into(TRAVELS).entry(travel);
+
+    Travels created = srv.run(insert).single(Travels.class);
+
+    assertThat(created.getBookings()).extracting(Bookings::getPos).containsExactly(1, 2, 3);
+    assertThat(created.getNextBookingPos()).isEqualTo(4);
+  }
+
+  @Test
+  @WithMockUser("admin")
+  public void testCreateBooking_withoutTravel() {
+    CqnInsert insert = Insert.into(BOOKINGS).entry(createBookingData());
+
+    assertThatServiceException()
+        .isThrownBy(() -> srv.run(insert))
+        .isBadRequest()
+        .withMessageOrKey("ASSERT_BOOKING_TRAVEL_REQUIRED")
+        .thatTargets("Travel_ID");
+  }
+
   @Test
   @WithMockUser("admin")
   public void testCreateTravel_withBooking_BookingDateNotWithinTravelDate() {
@@ -166,4 +300,77 @@ public class TravelServiceTest {
         .withMessageOrKey("ASSERT_BOOKING_CURRENCY_MATCHES_TRAVEL")
         .thatTargets("Bookings.Currency_code");
   }
+
+  @Test
+  @WithMockUser("admin")
+  public void testCreateTravel_withManyBookings_OneNotWithinTravelDate() {
+    List<Bookings> bookings = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      bookings.add(createBookingData());
+    }
+    bookings.get(37).setFlightDate(travel.getBeginDate().minus(1, DAYS));
+    travel.setBookings(bookings);
+
+    CqnInsert insert = Insert.into(TRAVELS).entry(travel);
+
+    assertThatServiceException()
+        .isThrownBy(() -> srv.run(insert))
+        .isBadRequest()
+        .withMessageOrKey("ASSERT_BOOKINGS_IN_TRAVEL_PERIOD")
+        .thatTargets("Bookings.Flight_date");
+  }
+
+  private Row unreplicatedFlight() {
+    var flights = Select.from("sap.capire.flights.data.Flights").columns("ID", "date");
+    return flightsService.run(flights).stream()
+        .filter(flight -> !isReplicated(flight))
+        .findFirst()
+        .orElseThrow();
+  }
+
+  private boolean isReplicated(Row flight) {
+    var replica =
+        Select.from("sap.capire.xflights.Flights")
+            .where(f -> f.get("ID").eq(flight.get("ID")).and(f.get("date").eq(flight.get("date"))));
+    return db.run(replica).rowCount() > 0;
+  }
+
+  private static Travels travelWithBooking(Row flight) {
+    LocalDate date = (LocalDate) flight.get("date");
+    Travels travel = createTravelData();
+    travel.setBeginDate(date);
+    travel.setEndDate(date.plus(1, DAYS));
+    Bookings booking = createBookingData();
+    booking.setFlightId((String) flight.get("ID"));
+    booking.setFlightDate(date);
+    travel.setBookings(List.of(booking));
+    return travel;
+  }
+
+  private void deleteTravels(Set<Integer> ids) {
+    if (ids.isEmpty()) return;
+    runtime
+        .requestContext()
+        .privilegedUser()
+        .run(
+            rc -> {
+              srv.run(
+                  Delete.from(TRAVELS).where(t -> t.ID().in(ids).and(t.IsActiveEntity().eq(true))));
+            });
+  }
+
+  private long summarizedTravels() {
+    var summaries =
+        Select.from("TravelService.TravelSummaries")
+            .columns(CQL.sum(CQL.get("Travels")).as("travels"))
+            .where(
+                s ->
+                    CQL.and(
+                        List.of(
+                            s.get("Agency_ID").eq(travel.getAgencyId()),
+                            s.get("Customer_ID").eq(travel.getCustomerId()),
+                            s.get("Month").eq("2024-06"))));
+    Object travels = srv.run(summaries).single().get("travels");
+    return travels == null ? 0 : ((Number) travels).longValue();
+  }
 }
@@ -0,0 +1,108 @@
+package sap.capire.xtravels.handler;
+
+import static com.sap.cds.services.cds.CqnService.EVENT_READ;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import cds.gen.sap.capire.flights.data.Data_;
+import cds.gen.travelservice.TravelService;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.cqn.CqnSelect;
+import com.sap.cds.services.EventContext;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.Before;
+import com.sap.cds.services.request.RequestContext;
+import com.sap.cds.services.request.UserInfo;
+import com.sap.cds.services.runtime.CdsRuntime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+// every cached entry is stale right away, so that each hit refreshes it
+@SpringBootTest(
+    properties = {
+      "skip-initial-load=true",
+      "xtravels.federation.delta-sync.enabled=false",
+      "xtravels.federation.value-help-cache.refresh-after=0s",
+      "xtravels.federation.flights.value-help-cache.shared=true"
+    })
+class ValueHelpCacheTest {
+
+  @Autowired private TravelService srv;
+  @Autowired private CdsRuntime runtime;
+  @Autowired private Recorder recorder;
+
+  @Test
+  void shouldRefreshEntriesAsTheirUser() throws InterruptedException {
+    var supplements = Select.from("TravelService.Supplements").columns("ID").limit(3);
+
+    readAs("alice", supplements);
+    readAs("alice", supplements);
+    readAs("bob", supplements);
+
+    // alice's entry is loaded and then refreshed as alice, bob gets an entry of his own
+    assertThat(recorder.await("Supplements", 3)).containsExactlyInAnyOrder("alice", "alice", "bob");
+  }
+
+  @Test
+  void shouldRefreshSharedEntriesAsTheRequestingUser() throws InterruptedException {
+    var flights = Select.from("TravelService.Flights").columns("ID", "date").limit(3);
+
+    readAs("alice", flights);
+    readAs("bob", flights);
+
+    // bob is served alice's entry, which is refreshed as bob, not as alice
+    assertThat(recorder.await("Flights", 2)).containsExactly("alice", "bob");
+  }
+
+  private void readAs(String user, CqnSelect select) {
+    runtime
+        .requestContext()
+        .user(UserInfo.create().setName(user))
+        .run(
+            (RequestContext requestContext) -> {
+              srv.run(select);
+            });
+  }
+
+  @TestConfiguration
+  static class RecordingConfiguration {
+
+    @Bean
+    Recorder recorder() {
+      return new Recorder();
+    }
+  }
+
+  // records the users that xflights is called as, per entity name without namespace
+  static class Recorder implements EventHandler {
+
+    private final List<Read> reads = new CopyOnWriteArrayList<>();
+
+    @Before(event = EVENT_READ, service = Data_.CDS_NAME)
+    void read(EventContext context) {
+      String name = context.getTarget().getQualifiedName();
+      reads.add(
+          new Read(name.substring(name.lastIndexOf('.') + 1), context.getUserInfo().getName()));
+    }
+
+    // the users of the reads of the entity, once the expected number of reads, including
+    // background refreshes, happened
+    List<String> await(String entity, int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (users(entity).size() < count && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      return users(entity);
+    }
+
+    private List<String> users(String entity) {
+      return reads.stream().filter(read -> read.entity().equals(entity)).map(Read::user).toList();
+    }
+
+    private record Read(String entity, String user) {}
+  }
+}
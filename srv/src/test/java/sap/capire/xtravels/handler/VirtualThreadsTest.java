@@ -0,0 +1,128 @@
+package sap.capire.xtravels.handler;
+
+import static com.sap.cds.services.cds.CqnService.EVENT_READ;
+import static com.sap.cds.services.cds.CqnService.EVENT_UPSERT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import cds.gen.sap.capire.flights.data.Data_;
+import cds.gen.sap.capire.xflights.Flights_;
+import cds.gen.travelservice.TravelService;
+import com.sap.cds.ql.Select;
+import com.sap.cds.services.EventContext;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.Before;
+import com.sap.cds.services.persistence.PersistenceService;
+import com.sap.cds.services.request.RequestContext;
+import com.sap.cds.services.request.UserInfo;
+import com.sap.cds.services.runtime.CdsRuntime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// The initial load runs in the background, so that its chunks run on the executor
+@SpringBootTest(
+    properties = {
+      "xtravels.federation.initial-load.async=true",
+      "xtravels.federation.delta-sync.enabled=false"
+    })
+@ActiveProfiles({"default", "virtual-threads"})
+class VirtualThreadsTest {
+
+  @Autowired private TravelService srv;
+  @Autowired private CdsRuntime runtime;
+  @Autowired private InitialLoad initialLoad;
+  @Autowired private Recorder recorder;
+
+  @Test
+  void shouldCallXflightsForValueHelpOnVirtualThreadAsRequestingUser() {
+    runtime
+        .requestContext()
+        .user(UserInfo.create().setName("alice"))
+        .run(
+            (RequestContext requestContext) -> {
+              srv.run(Select.from("TravelService.Flights").columns("ID", "date").limit(3));
+            });
+
+    assertThat(recorder.calls())
+        .filteredOn(call -> call.event().equals(EVENT_READ) && "alice".equals(call.user()))
+        .isNotEmpty()
+        .allMatch(Call::virtual);
+  }
+
+  @Test
+  void shouldReplicateChunksOnVirtualThreadsInTransactionsAsSystemUser()
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 60_000;
+    while (initialLoad.isRunning() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(initialLoad.isRunning()).isFalse();
+
+    List<Call> upserts =
+        recorder.calls().stream()
+            .filter(call -> call.event().equals(EVENT_UPSERT))
+            .filter(call -> call.entity().equals(Flights_.CDS_NAME))
+            .toList();
+    assertThat(upserts)
+        .isNotEmpty()
+        .allMatch(Call::virtual)
+        .allMatch(Call::systemUser)
+        .allMatch(Call::transaction);
+  }
+
+  @TestConfiguration
+  static class RecordingConfiguration {
+
+    @Bean
+    Recorder recorder() {
+      return new Recorder();
+    }
+  }
+
+  // records the calls to xflights and the upserts of replicas, with the thread, the user of
+  // the RequestContext and whether a transaction is active, as seen by the handlers
+  static class Recorder implements EventHandler {
+
+    private final List<Call> calls = new CopyOnWriteArrayList<>();
+
+    @Before(event = EVENT_READ, service = Data_.CDS_NAME)
+    void read(EventContext context) {
+      add(context);
+    }
+
+    @Before(event = EVENT_UPSERT, serviceType = PersistenceService.class)
+    void upsert(EventContext context) {
+      add(context);
+    }
+
+    private void add(EventContext context) {
+      UserInfo user = context.getUserInfo();
+      calls.add(
+          new Call(
+              context.getEvent(),
+              context.getTarget().getQualifiedName(),
+              user.getName(),
+              user.isSystemUser(),
+              Thread.currentThread().isVirtual(),
+              TransactionSynchronizationManager.isActualTransactionActive()));
+    }
+
+    List<Call> calls() {
+      return List.copyOf(calls);
+    }
+  }
+
+  record Call(
+      String event,
+      String entity,
+      String user,
+      boolean systemUser,
+      boolean virtual,
+      boolean transaction) {}
+}
@@ -0,0 +1,285 @@
+package sap.capire.xtravels.it;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import cds.gen.travelservice.TravelService;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.cqn.CqnSelect;
+import com.sap.cds.services.persistence.PersistenceService;
+import com.sap.cds.services.runtime.CdsRuntime;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Plans of the list report, value help and aggregation queries on H2 must not scan tables.
+ *
+ * <p>The queries are run as CQN through TravelService or the PersistenceService, and the SQL that
+ * CAP generates for them, e.g. with the union of drafts and active Travels, is explained.
+ */
+@SpringBootTest(properties = "skip-initial-load=true")
+class QueryPlanTest {
+
+  private static final LocalDate JUNE_1 = LocalDate.of(2024, 6, 1);
+  private static final LocalDate JUNE_30 = LocalDate.of(2024, 6, 30);
+
+  @Autowired private JdbcTemplate jdbc;
+  @Autowired private DataSource dataSource;
+  @Autowired private CdsRuntime runtime;
+  @Autowired private PersistenceService db;
+  @Autowired private TravelService srv;
+
+  static Stream<Arguments> queries() {
+    return Stream.of(
+        service(
+            "Travels by BeginDate",
+            Select.from("TravelService.Travels")
+                .columns("ID", "Description")
+                .where(
+                    t ->
+                        t.get("IsActiveEntity")
+                            .eq(true)
+                            .and(t.get("BeginDate").between(JUNE_1, JUNE_30)))),
+        service(
+            "Travels by EndDate",
+            Select.from("TravelService.Travels")
+                .columns("ID", "Description")
+                .where(
+                    t ->
+                        t.get("IsActiveEntity")
+                            .eq(true)
+                            .and(t.get("EndDate").between(JUNE_1, JUNE_30)))),
+        service(
+            "Travels by Status",
+            Select.from("TravelService.Travels")
+                .columns("ID", "Description")
+                .where(t -> t.get("IsActiveEntity").eq(true).and(t.get("Status_code").eq("A")))),
+        service(
+            "Travels and drafts",
+            Select.from("TravelService.Travels")
+                .columns("ID", "Description")
+                .where(
+                    t ->
+                        t.get("IsActiveEntity")
+                            .eq(false)
+                            .or(t.to("SiblingEntity").get("IsActiveEntity").isNull()))
+                .orderBy(CQL.get("ID").desc(), CQL.get("IsActiveEntity").asc())
+                .limit(20)),
+        service(
+            "Travels after page",
+            Select.from("TravelService.Travels")
+                .columns("ID", "Description")
+                .where(t -> t.get("IsActiveEntity").eq(true).and(t.get("ID").lt(1000)))
+                .orderBy(CQL.get("ID").desc(), CQL.get("IsActiveEntity").asc())
+                .limit(20)),
+        service(
+            "Summaries of Agency",
+            Select.from("TravelService.TravelSummaries")
+                .columns(
+                    CQL.get("Month"),
+                    CQL.sum(CQL.get("Travels")).as("Travels"),
+                    CQL.sum(CQL.get("TotalPrice")).as("TotalPrice"))
+                .where(s -> s.get("Agency_ID").eq("070001"))
+                .groupBy(CQL.get("Month"))),
+        database(
+            "Bookings of Flight",
+            Select.from("sap.capire.travels.Bookings")
+                .columns("Travel_ID", "Pos")
+                .where(
+                    b ->
+                        b.get("Flight_ID")
+                            .eq("GA0322")
+                            .and(b.get("Flight_date").eq(LocalDate.of(2024, 6, 2))))),
+        database(
+            "Bookings of Travels",
+            Select.from("sap.capire.travels.Bookings")
+                .columns(CQL.get("Pos"), CQL.get("Travel.BeginDate"))
+                .where(b -> b.get("Travel_ID").in(1, 2, 3))),
+        database(
+            "Transitions of Travel",
+            Select.from("sap.capire.travels.Travels.transitions_")
+                .columns("status")
+                .where(t -> t.get("up__ID").eq(1))
+                .orderBy(CQL.get("timestamp").desc())
+                .limit(2)));
+  }
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("queries")
+  void shouldNotScanTables(String query, CqnSelect select, boolean viaService) {
+    List<Statement> statements =
+        ((RecordingDataSource) dataSource)
+            .record(
+                () ->
+                    runtime
+                        .requestContext()
+                        .privilegedUser()
+                        .run(
+                            requestContext -> {
+                              if (viaService) {
+                                srv.run(select);
+                              } else {
+                                db.run(select);
+                              }
+                            }));
+
+    assertThat(statements).as(query).isNotEmpty();
+    for (Statement statement : statements) {
+      String plan =
+          jdbc.queryForObject(
+              "EXPLAIN " + statement.sql(),
+              String.class,
+              statement.parameters().values().toArray());
+      // the drafts of the current users are few and read without index
+      assertThat(plan.lines().filter(line -> line.contains("tableScan")))
+          .as(query + ":\n" + plan)
+          .allMatch(line -> line.toUpperCase().contains("_DRAFTS"));
+    }
+  }
+
+  private static Arguments service(String query, CqnSelect select) {
+    return Arguments.of(query, select, true);
+  }
+
+  private static Arguments database(String query, CqnSelect select) {
+    return Arguments.of(query, select, false);
+  }
+
+  private record Statement(String sql, Map<Integer, Object> parameters) {}
+
+  @TestConfiguration
+  @ImportRuntimeHints(RecordingHints.class)
+  static class RecordingConfiguration {
+
+    @Bean
+    static BeanPostProcessor recordingDataSource() {
+      return new BeanPostProcessor() {
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+          return bean instanceof DataSource ds && !(bean instanceof RecordingDataSource)
+              ? new RecordingDataSource(ds)
+              : bean;
+        }
+      };
+    }
+  }
+
+  // the proxies of RecordingDataSource, which invoke the JDBC methods reflectively, also when
+  // the tests run natively
+  static class RecordingHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+      for (Class<?> type : List.of(Connection.class, PreparedStatement.class)) {
+        hints.proxies().registerJdkProxy(type);
+        hints.reflection().registerType(type, MemberCategory.INVOKE_PUBLIC_METHODS);
+      }
+    }
+  }
+
+  // records the SELECT statements, and their parameters, while running the given queries
+  static class RecordingDataSource extends DelegatingDataSource {
+
+    private volatile List<Statement> recorded;
+
+    RecordingDataSource(DataSource dataSource) {
+      super(dataSource);
+    }
+
+    synchronized List<Statement> record(Runnable queries) {
+      recorded = new CopyOnWriteArrayList<>();
+      try {
+        queries.run();
+        return List.copyOf(recorded);
+      } finally {
+        recorded = null;
+      }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      return recording(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+      return recording(super.getConnection(username, password));
+    }
+
+    private Connection recording(Connection connection) {
+      return proxy(
+          Connection.class,
+          connection,
+          (proxy, method, args) -> {
+            Object result = invoke(connection, method, args);
+            List<Statement> statements = recorded;
+            if (statements != null
+                && method.getName().equals("prepareStatement")
+                && args[0] instanceof String sql
+                && sql.strip().toUpperCase().startsWith("SELECT")) {
+              Statement statement = new Statement(sql, new TreeMap<>());
+              statements.add(statement);
+              return recording((PreparedStatement) result, statement);
+            }
+            return result;
+          });
+    }
+
+    private PreparedStatement recording(PreparedStatement prepared, Statement statement) {
+      return proxy(
+          PreparedStatement.class,
+          prepared,
+          (proxy, method, args) -> {
+            if (method.getName().startsWith("set")
+                && args != null
+                && args.length >= 2
+                && args[0] instanceof Integer index) {
+              statement
+                  .parameters()
+                  .put(index, method.getName().equals("setNull") ? null : args[1]);
+            }
+            return invoke(prepared, method, args);
+          });
+    }
+
+    private static <T> T proxy(Class<T> type, T target, InvocationHandler handler) {
+      return type.cast(
+          Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package sap.capire.xtravels.it;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+
+/** Integration tests for the replication actuator endpoint */
+@SpringBootTest(properties = "skip-initial-load=true")
+@AutoConfigureMockMvc
+class ReplicationEndpointTest {
+
+  private static final String REPLICATION_ENDPOINT = "/actuator/replication";
+
+  @Autowired private MockMvc mockMvc;
+
+  @Test
+  @WithMockUser("alice")
+  void shouldReportProgressToAuthenticatedUsers() throws Exception {
+    mockMvc.perform(get(REPLICATION_ENDPOINT)).andExpect(status().isOk());
+  }
+
+  @Test
+  @WithMockUser("alice")
+  void shouldReturn403ForResetByNonAdmin() throws Exception {
+    mockMvc.perform(delete(REPLICATION_ENDPOINT)).andExpect(status().isForbidden());
+  }
+}
@@ -2,8 +2,11 @@ package sap.capire.xtravels.it;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -14,12 +17,14 @@ import static sap.capire.xtravels.TestData.createTravelData;
 
 import cds.gen.travelservice.Bookings;
 import cds.gen.travelservice.Travels;
+import com.jayway.jsonpath.JsonPath;
 import com.sap.cds.CdsData;
 import com.sap.cds.CdsJsonConverter;
 import com.sap.cds.CdsJsonConverter.UnknownPropertyHandling;
 import com.sap.cds.reflect.CdsModel;
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Objects;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -68,6 +73,46 @@ class TravelServiceIntegrationTest {
         .andExpect(jsonPath("$.value").isArray());
   }
 
+  @Test
+  @WithMockUser("admin")
+  void shouldReadPagesOfTravelsConsecutively() throws Exception {
+    String description = "Paging-" + System.nanoTime();
+    Integer[] ids = new Integer[4];
+    for (int i = 0; i < ids.length; i++) {
+      Travels travel = createTravelData();
+      travel.setDescription(description);
+      String response =
+          mockMvc
+              .perform(
+                  post(TRAVELS_ENDPOINT).contentType("application/json").content(travel.toJson()))
+              .andExpect(status().isCreated())
+              .andReturn()
+              .getResponse()
+              .getContentAsString();
+      ids[i] = converter.fromJsonObject(response, Travels.class).getId();
+    }
+    String pages =
+        TRAVELS_ENDPOINT
+            + "?$filter=Description eq '"
+            + description
+            + "'&$orderby=ID desc&$count=true&$top=2";
+
+    mockMvc
+        .perform(get(pages + "&$skip=0"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.value[0].ID").value(ids[3]))
+        .andExpect(jsonPath("$.value[1].ID").value(ids[2]));
+
+    // read with a seek after the last Travel of the previous page
+    mockMvc
+        .perform(get(pages + "&$skip=2"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.@odata.count").value(4))
+        .andExpect(jsonPath("$.value.length()").value(2))
+        .andExpect(jsonPath("$.value[0].ID").value(ids[1]))
+        .andExpect(jsonPath("$.value[1].ID").value(ids[0]));
+  }
+
   @Test
   @WithMockUser("admin")
   void shouldCreateTravel() throws Exception {
@@ -152,6 +197,109 @@ class TravelServiceIntegrationTest {
         .andExpect(jsonPath("$.Bookings[0].Supplements[0].booked.descr").value("Hot Chocolate"));
   }
 
+  @Test
+  @WithMockUser("admin")
+  void shouldUpdateTotalPriceWhileEditingDraft() throws Exception {
+    Travels travel = createTravelData();
+    Bookings booking = createBookingData();
+    booking.setSupplements(List.of(createSupplementData()));
+    travel.setBookings(List.of(booking));
+
+    String response =
+        mockMvc
+            .perform(
+                post(TRAVELS_ENDPOINT).contentType("application/json").content(travel.toJson()))
+            .andExpect(status().isCreated())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+
+    Travels createdTravel = converter.fromJsonObject(response, Travels.class);
+    String draft = TRAVELS_ENDPOINT + "(ID=" + createdTravel.getId() + ",IsActiveEntity=false)";
+
+    // Edit the travel as draft
+    mockMvc
+        .perform(
+            post(TRAVELS_ENDPOINT
+                    + "(ID="
+                    + createdTravel.getId()
+                    + ",IsActiveEntity=true)/TravelService.draftEdit")
+                .contentType("application/json")
+                .content("{\"PreserveChanges\":true}"))
+        .andExpect(status().is2xxSuccessful());
+
+    // Patching the booking fee adds the difference, also in the response
+    mockMvc
+        .perform(patch(draft).contentType("application/json").content("{\"BookingFee\":150}"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.TotalPrice").value(1255.3));
+
+    mockMvc
+        .perform(get(draft))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.TotalPrice").value(1255.3));
+
+    // Deleting the booking subtracts its flight price and supplements
+    mockMvc
+        .perform(
+            delete(
+                draft
+                    + "/Bookings(Travel_ID="
+                    + createdTravel.getId()
+                    + ",Pos=1,IsActiveEntity=false)"))
+        .andExpect(status().isNoContent());
+
+    mockMvc
+        .perform(get(draft))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.TotalPrice").value(150));
+  }
+
+  @Test
+  @WithMockUser("admin")
+  void shouldRespondWithTotalPriceAfterBookingChange() throws Exception {
+    Travels travel = createTravelData();
+    travel.setBookings(List.of(createBookingData()));
+
+    String response =
+        mockMvc
+            .perform(
+                post(TRAVELS_ENDPOINT).contentType("application/json").content(travel.toJson()))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.TotalPrice").value(1203))
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+
+    Integer id = converter.fromJsonObject(response, Travels.class).getId();
+    String active = TRAVELS_ENDPOINT + "(ID=" + id + ",IsActiveEntity=true)";
+    String draft = TRAVELS_ENDPOINT + "(ID=" + id + ",IsActiveEntity=false)";
+
+    mockMvc
+        .perform(
+            post(active + "/TravelService.draftEdit")
+                .contentType("application/json")
+                .content("{\"PreserveChanges\":true}"))
+        .andExpect(status().is2xxSuccessful());
+
+    // the changed flight price is added to the total at the end of its change set ...
+    mockMvc
+        .perform(
+            patch(draft + "/Bookings(Travel_ID=" + id + ",Pos=1,IsActiveEntity=false)")
+                .contentType("application/json")
+                .content("{\"FlightPrice\":1000}"))
+        .andExpect(status().isOk());
+
+    // ... and the activated Travel responds with the total of the changed Booking
+    mockMvc
+        .perform(
+            post(draft + "/TravelService.draftActivate")
+                .contentType("application/json")
+                .content("{}"))
+        .andExpect(status().is2xxSuccessful())
+        .andExpect(jsonPath("$.TotalPrice").value(1100));
+  }
+
   @Test
   @WithMockUser("admin")
   void shouldGetReadOnlyEntitiesSuccessfully() throws Exception {
@@ -312,4 +460,305 @@ class TravelServiceIntegrationTest {
         .andExpect(content().contentTypeCompatibleWith("application/json"))
         .andExpect(jsonPath("$.BookingFee").value(90));
   }
+
+  @Test
+  @WithMockUser("admin")
+  void shouldRoundDiscountedPricesToTwoDecimals() throws Exception {
+    Travels travel = createTravelData();
+    travel.setBookings(List.of(createBookingData()));
+    String response =
+        mockMvc
+            .perform(
+                post(TRAVELS_ENDPOINT).contentType("application/json").content(travel.toJson()))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.TotalPrice").value(1203))
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+
+    Travels createdTravel = converter.fromJsonObject(response, Travels.class);
+    CdsData actionParams = CdsData.create();
+    actionParams.put("percent", 10);
+
+    mockMvc
+        .perform(
+            post(TRAVELS_ENDPOINT
+                    + "(ID="
+                    + createdTravel.getId()
+                    + ",IsActiveEntity=true)/TravelService.deductDiscount")
+                .contentType("application/json")
+                .content(actionParams.toJson()))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.BookingFee").value(90))
+        .andExpect(jsonPath("$.TotalPrice").value(1082.7));
+  }
+
+  @Test
+  @WithMockUser("admin")
+  void shouldDeductDiscountsForOpenTravelsOnly() throws Exception {
+    Integer[] ids = new Integer[2];
+    for (int i = 0; i < ids.length; i++) {
+      String response =
+          mockMvc
+              .perform(
+                  post(TRAVELS_ENDPOINT)
+                      .contentType("application/json")
+                      .content(createTravelData().toJson()))
+              .andExpect(status().isCreated())
+              .andReturn()
+              .getResponse()
+              .getContentAsString();
+      ids[i] = converter.fromJsonObject(response, Travels.class).getId();
+    }
+    mockMvc
+        .perform(
+            post(TRAVELS_ENDPOINT
+                    + "(ID="
+                    + ids[1]
+                    + ",IsActiveEntity=true)/TravelService.acceptTravel")
+                .contentType("application/json")
+                .content("{}"))
+        .andExpect(status().is2xxSuccessful());
+
+    CdsData actionParams = CdsData.create();
+    actionParams.put("percent", 10);
+    actionParams.put("travels", List.of(ids[0], ids[1], -1));
+
+    mockMvc
+        .perform(
+            post(TRAVELS_ENDPOINT + "/TravelService.deductDiscounts")
+                .contentType("application/json")
+                .content(actionParams.toJson()))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.discounted[0]").value(ids[0]))
+        .andExpect(jsonPath("$.skipped[0]").value(ids[1]))
+        .andExpect(jsonPath("$.skipped[1]").value(-1));
+
+    mockMvc
+        .perform(get(TRAVELS_ENDPOINT + "(ID=" + ids[0] + ",IsActiveEntity=true)"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.BookingFee").value(90));
+  }
+
+  @Test
+  @WithMockUser("admin")
+  void shouldSkipTravelsWithDraftWhenDeductingDiscounts() throws Exception {
+    Integer open = createTravel(createTravelData());
+    Integer edited = createTravel(createTravelData());
+    mockMvc
+        .perform(
+            post(TRAVELS_ENDPOINT
+                    + "(ID="
+                    + edited
+                    + ",IsActiveEntity=true)/TravelService.draftEdit")
+                .contentType("application/json")
+                .content("{\"PreserveChanges\":true}"))
+        .andExpect(status().is2xxSuccessful());
+
+    CdsData actionParams = CdsData.create();
+    actionParams.put("percent", 10);
+    actionParams.put("travels", List.of(open, edited));
+
+    mockMvc
+        .perform(
+            post(TRAVELS_ENDPOINT + "/TravelService.deductDiscounts")
+                .contentType("application/json")
+                .content(actionParams.toJson()))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.discounted[0]").value(open))
+        .andExpect(jsonPath("$.skipped[0]").value(edited));
+
+    mockMvc
+        .perform(get(TRAVELS_ENDPOINT + "(ID=" + edited + ",IsActiveEntity=true)"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.BookingFee").value(100));
+  }
+
+  @Test
+  @WithMockUser("admin")
+  void shouldMoveTravelToSummaryOfNewStatus() throws Exception {
+    Travels travel = createTravelData();
+    travel.setBookings(List.of(createBookingData()));
+    Summary open = summary("O");
+    Summary accepted = summary("A");
+
+    Integer id = createTravel(travel);
+    assertEquals(open.plus(1, "1203"), summary("O"));
+
+    mockMvc
+        .perform(
+            post(TRAVELS_ENDPOINT
+                    + "(ID="
+                    + id
+                    + ",IsActiveEntity=true)/TravelService.acceptTravel")
+                .contentType("application/json")
+                .content("{}"))
+        .andExpect(status().is2xxSuccessful());
+
+    assertEquals(open, summary("O"));
+    assertEquals(accepted.plus(1, "1203"), summary("A"));
+  }
+
+  @Test
+  @WithMockUser("admin")
+  void shouldRemoveDeletedTravelFromSummary() throws Exception {
+    Travels travel = createTravelData();
+    travel.setBookings(List.of(createBookingData()));
+    Summary open = summary("O");
+
+    Integer id = createTravel(travel);
+    assertEquals(open.plus(1, "1203"), summary("O"));
+
+    mockMvc
+        .perform(delete(TRAVELS_ENDPOINT + "(ID=" + id + ",IsActiveEntity=true)"))
+        .andExpect(status().isNoContent());
+
+    assertEquals(open, summary("O"));
+  }
+
+  @Test
+  @WithMockUser("admin")
+  void shouldUpdateSummaryWhenDraftIsActivated() throws Exception {
+    Travels travel = createTravelData();
+    travel.setBookings(List.of(createBookingData()));
+    Summary open = summary("O");
+
+    Integer id = createTravel(travel);
+    String active = TRAVELS_ENDPOINT + "(ID=" + id + ",IsActiveEntity=true)";
+    String draft = TRAVELS_ENDPOINT + "(ID=" + id + ",IsActiveEntity=false)";
+
+    mockMvc
+        .perform(
+            post(active + "/TravelService.draftEdit")
+                .contentType("application/json")
+                .content("{\"PreserveChanges\":true}"))
+        .andExpect(status().is2xxSuccessful());
+    mockMvc
+        .perform(
+            patch(draft + "/Bookings(Travel_ID=" + id + ",Pos=1,IsActiveEntity=false)")
+                .contentType("application/json")
+                .content("{\"FlightPrice\":1000}"))
+        .andExpect(status().isOk());
+
+    // changes of the draft aren't summarized ...
+    assertEquals(open.plus(1, "1203"), summary("O"));
+
+    mockMvc
+        .perform(
+            post(draft + "/TravelService.draftActivate")
+                .contentType("application/json")
+                .content("{}"))
+        .andExpect(status().is2xxSuccessful());
+
+    // ... until it's activated
+    assertEquals(open.plus(1, "1100"), summary("O"));
+  }
+
+  @Test
+  @WithMockUser("admin")
+  void shouldContinueBookingPositionsAcrossDraftActivations() throws Exception {
+    Travels travel = createTravelData();
+    travel.setBookings(List.of(createBookingData()));
+    Integer id = createTravel(travel);
+
+    assertEquals(2, addBookingInDraft(id));
+    assertEquals(3, addBookingInDraft(id));
+
+    String response =
+        mockMvc
+            .perform(
+                get(TRAVELS_ENDPOINT + "(ID=" + id + ",IsActiveEntity=true)/Bookings")
+                    .queryParam("$orderby", "Pos"))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    List<Integer> positions = JsonPath.read(response, "$.value[*].Pos");
+    assertEquals(List.of(1, 2, 3), positions);
+  }
+
+  private Integer createTravel(Travels travel) throws Exception {
+    String response =
+        mockMvc
+            .perform(
+                post(TRAVELS_ENDPOINT).contentType("application/json").content(travel.toJson()))
+            .andExpect(status().isCreated())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    return converter.fromJsonObject(response, Travels.class).getId();
+  }
+
+  // edits the Travel, adds a Booking to the draft, activates it and returns the Booking's Pos
+  private Integer addBookingInDraft(Integer id) throws Exception {
+    String active = TRAVELS_ENDPOINT + "(ID=" + id + ",IsActiveEntity=true)";
+    String draft = TRAVELS_ENDPOINT + "(ID=" + id + ",IsActiveEntity=false)";
+    mockMvc
+        .perform(
+            post(active + "/TravelService.draftEdit")
+                .contentType("application/json")
+                .content("{\"PreserveChanges\":true}"))
+        .andExpect(status().is2xxSuccessful());
+    String response =
+        mockMvc
+            .perform(
+                post(draft + "/Bookings")
+                    .contentType("application/json")
+                    .content(createBookingData().toJson()))
+            .andExpect(status().isCreated())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    mockMvc
+        .perform(
+            post(draft + "/TravelService.draftActivate")
+                .contentType("application/json")
+                .content("{}"))
+        .andExpect(status().is2xxSuccessful());
+    return converter.fromJsonObject(response, Bookings.class).getPos();
+  }
+
+  // the summary of the test data's Agency, Customer, month and Currency in the given status
+  private Summary summary(String status) throws Exception {
+    Travels travel = createTravelData();
+    String filter =
+        "Agency_ID eq '%s' and Customer_ID eq '%s' and Status_code eq '%s' and Month eq '%s' and Currency_code eq '%s'"
+            .formatted(
+                travel.getAgencyId(),
+                travel.getCustomerId(),
+                status,
+                travel.getBeginDate().toString().substring(0, 7),
+                travel.getCurrencyCode());
+    String response =
+        mockMvc
+            .perform(get(ODATA_BASE_URL + "/TravelSummaries").queryParam("$filter", filter))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    List<Object> travels = JsonPath.read(response, "$.value[*].Travels");
+    List<Object> totalPrices = JsonPath.read(response, "$.value[*].TotalPrice");
+    if (travels.isEmpty()) return new Summary(0, BigDecimal.ZERO);
+    return new Summary(
+        ((Number) travels.get(0)).intValue(), new BigDecimal(totalPrices.get(0).toString()));
+  }
+
+  private record Summary(int travels, BigDecimal totalPrice) {
+
+    Summary plus(int travels, String totalPrice) {
+      return new Summary(this.travels + travels, this.totalPrice.add(new BigDecimal(totalPrice)));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Summary summary
+          && travels == summary.travels
+          && totalPrice.compareTo(summary.totalPrice) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(travels, totalPrice.stripTrailingZeros());
+    }
+  }
 }